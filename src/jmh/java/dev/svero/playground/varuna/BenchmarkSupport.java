@@ -0,0 +1,129 @@
+package dev.svero.playground.varuna;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Helper methods shared by the benchmarks.
+ *
+ * @author Sven Roeseler
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates a temporary file filled with random data.
+     *
+     * @param size Size of the file in bytes
+     * @return Path of the created file
+     * @throws IOException If the file could not be written
+     */
+    static Path createFile(long size) throws IOException {
+        Path file = Files.createTempFile("benchmark", ".bin");
+        file.toFile().deleteOnExit();
+
+        byte[] buffer = new byte[64 * 1024];
+
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            long remaining = size;
+
+            while (remaining > 0) {
+                ThreadLocalRandom.current().nextBytes(buffer);
+                int length = (int) Math.min(buffer.length, remaining);
+                outputStream.write(buffer, 0, length);
+                remaining -= length;
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Subscribes to the body publisher and consumes all buffers like the HTTP client would.
+     *
+     * @param publisher Body publisher
+     * @param blackhole Blackhole for the consumed data
+     * @return Number of consumed bytes
+     */
+    static long drain(HttpRequest.BodyPublisher publisher, Blackhole blackhole) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private long count;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                count += item.remaining();
+                blackhole.consume(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(count);
+            }
+        });
+
+        return result.join();
+    }
+
+    /**
+     * Starts a local HTTP server which consumes every request body and answers with the
+     * specified response.
+     *
+     * @param response Response body
+     * @return Started server
+     * @throws IOException If the server could not be started
+     */
+    static HttpServer startStubServer(byte[] response) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        server.createContext("/", exchange -> {
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                inputStream.transferTo(OutputStream.nullOutputStream());
+            }
+
+            exchange.sendResponseHeaders(200, response.length);
+
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.start();
+
+        return server;
+    }
+
+    /**
+     * Returns the base URL of the stub server.
+     *
+     * @param server Started server
+     * @return Base URL without trailing slash
+     */
+    static String getBaseUrl(HttpServer server) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+}
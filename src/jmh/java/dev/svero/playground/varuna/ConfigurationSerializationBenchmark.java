@@ -0,0 +1,54 @@
+package dev.svero.playground.varuna;
+
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of the validation service configuration done for every request,
+ * compared with a configuration which was serialized once.
+ *
+ * @author Sven Roeseler
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigurationSerializationBenchmark {
+    private ValidationServiceConfiguration configuration;
+    private PreparedConfiguration preparedConfiguration;
+
+    @Setup
+    public void setUp() {
+        configuration = new ValidationServiceConfiguration();
+        configuration.addReportConfiguration("PDF", "EN");
+        configuration.addReportConfiguration("SVR");
+        configuration.addReportConfiguration("HTML", "DE");
+        configuration.setProfile("AUTOMATIC");
+        configuration.setMaxRecursionDepth(3);
+
+        preparedConfiguration = PreparedConfiguration.of(configuration);
+    }
+
+    @Benchmark
+    public Object serialize() {
+        Map<Object, Object> data = ValidationServiceClient.createRequestData(configuration,
+                Path.of("signature.p7s"), null);
+
+        return ((PreparedConfiguration) data.get("jsonConfig")).getJsonBytes();
+    }
+
+    @Benchmark
+    public Object prepared() {
+        Map<Object, Object> data = ValidationServiceClient.createRequestData(preparedConfiguration,
+                Path.of("signature.p7s"), null);
+
+        return ((PreparedConfiguration) data.get("jsonConfig")).getJsonBytes();
+    }
+}
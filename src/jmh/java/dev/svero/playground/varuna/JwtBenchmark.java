@@ -0,0 +1,135 @@
+package dev.svero.playground.varuna;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of signing the client assertion with RSA and EC keys and compares it
+ * with handing out reused, pooled or on-demand signed assertions via
+ * {@link ClientAssertionProvider}. Each call of a provider stands for one token request; the
+ * {@code signatures} counter reports the signatures made by the provider, including those of
+ * its background thread, so dividing it by the throughput gives the signatures per token.
+ *
+ * @author Sven Roeseler
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+    @Param({"RSA", "EC"})
+    private String keyType;
+
+    private final JWTUtils jwtUtils = new JWTUtils();
+    private PrivateKey privateKey;
+    private ClientAssertionProvider reusingProvider;
+    private ClientAssertionProvider poolingProvider;
+    private ClientAssertionProvider onDemandProvider;
+
+    /**
+     * Counts the signatures made by the providers during an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Signatures {
+        public long signatures;
+        private long base;
+
+        @Setup(Level.Iteration)
+        public void reset(final JwtBenchmark benchmark) {
+            signatures = 0;
+            base = benchmark.getSignedCount();
+        }
+
+        void update(final JwtBenchmark benchmark) {
+            signatures = benchmark.getSignedCount() - base;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator;
+
+        if ("RSA".equals(keyType)) {
+            generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+        } else {
+            generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        }
+
+        privateKey = generator.generateKeyPair().getPrivate();
+
+        Duration validity = Duration.ofMinutes(5);
+        reusingProvider = new ClientAssertionProvider(() -> sign(validity), validity, Duration.ofSeconds(10),
+                true, 0);
+        poolingProvider = new ClientAssertionProvider(() -> sign(validity), validity, Duration.ofSeconds(10),
+                false, 4);
+        onDemandProvider = new ClientAssertionProvider(() -> sign(validity), validity, Duration.ofSeconds(10),
+                false, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reusingProvider.close();
+        poolingProvider.close();
+        onDemandProvider.close();
+    }
+
+    @Benchmark
+    public String generateJwt() {
+        return jwtUtils.generateJwt("validation-service", "https://keycloak/realms/test",
+                "validation-service", privateKey);
+    }
+
+    /**
+     * One assertion is reused until it nearly expires, so nearly every call is a cache hit.
+     */
+    @Benchmark
+    public String reusedAssertion(final Signatures counters) {
+        String assertion = reusingProvider.get();
+        counters.update(this);
+        return assertion;
+    }
+
+    /**
+     * Every call takes a fresh assertion from the pool, which a background thread refills.
+     * This moves the signing off the calling thread but still costs one signature per token;
+     * if tokens are requested less often than the assertions expire, pooled assertions are
+     * discarded and the pool costs more signatures than signing on demand.
+     */
+    @Benchmark
+    public String pooledAssertion(final Signatures counters) {
+        String assertion = poolingProvider.get();
+        counters.update(this);
+        return assertion;
+    }
+
+    /**
+     * Every call signs a new assertion on the calling thread, one signature per token.
+     */
+    @Benchmark
+    public String onDemandAssertion(final Signatures counters) {
+        String assertion = onDemandProvider.get();
+        counters.update(this);
+        return assertion;
+    }
+
+    private long getSignedCount() {
+        return reusingProvider.getSignedCount() + poolingProvider.getSignedCount()
+                + onDemandProvider.getSignedCount();
+    }
+
+    private String sign(final Duration validity) {
+        return jwtUtils.generateJwt("validation-service", "https://keycloak/realms/test",
+                "validation-service", privateKey, validity);
+    }
+}
@@ -0,0 +1,77 @@
+package dev.svero.playground.varuna;
+
+import dev.svero.playground.varuna.utils.MultipartBodyPublisher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the allocations for the non-file parts of the multipart body. Run with
+ * {@code -prof gc} and compare {@code gc.alloc.rate.norm} (bytes per operation) of the
+ * current encoder with the former string-based encoding and boundary generation.
+ *
+ * @author Sven Roeseler
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultipartAllocationBenchmark {
+    private static final String BOUNDARY = "benchmark-boundary";
+    private static final String JSON = "{\"reportConfigurations\":[{\"reportType\":\"PDF\",\"reportLanguage\":\"EN\"},"
+            + "{\"reportType\":\"SVR\"},{\"reportType\":\"HTML\",\"reportLanguage\":\"DE\"}],\"validationOptions\":"
+            + "{\"profile\":\"AUTOMATIC\",\"maxRecursionDepth\":3}}";
+
+    private final byte[] jsonBytes = JSON.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public MultipartBodyPublisher encodeParts() {
+        return MultipartBodyPublisher.newBuilder(BOUNDARY)
+                .addJsonPart("jsonConfig", jsonBytes)
+                .addTextPart("profile", "AUTOMATIC")
+                .build();
+    }
+
+    /**
+     * Encodes the parts and consumes the body like the HTTP client would.
+     */
+    @Benchmark
+    public long encodeAndConsume(Blackhole blackhole) {
+        return BenchmarkSupport.drain(encodeParts(), blackhole);
+    }
+
+    /**
+     * Encoding of the parts as it was done before: string concatenation per part and
+     * {@code getBytes} on the result. Only the bytes are created, no publisher.
+     */
+    @Benchmark
+    public int encodePartsWithStrings(Blackhole blackhole) {
+        String separator = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"";
+        byte[] json = (separator + "jsonConfig\"" + "\r\nContent-Type:application/json\r\n\r\n" + JSON + "\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] text = (separator + "profile\"" + "\r\n\r\n" + "AUTOMATIC" + "\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] closing = ("--" + BOUNDARY + "--").getBytes(StandardCharsets.UTF_8);
+
+        blackhole.consume(json);
+        blackhole.consume(text);
+        blackhole.consume(closing);
+
+        return json.length + text.length + closing.length;
+    }
+
+    @Benchmark
+    public String boundary() {
+        return MultipartBodyPublisher.newBoundary();
+    }
+
+    @Benchmark
+    public String boundaryWithBigInteger() {
+        return new BigInteger(256, new Random()).toString();
+    }
+}
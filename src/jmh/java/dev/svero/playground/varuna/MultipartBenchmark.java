@@ -0,0 +1,57 @@
+package dev.svero.playground.varuna;
+
+import com.google.gson.JsonObject;
+import dev.svero.playground.varuna.utils.HttpUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and consuming the multipart request body for different file sizes.
+ *
+ * @author Sven Roeseler
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultipartBenchmark {
+    @Param({"10240", "1048576", "52428800"})
+    private long fileSize;
+
+    private HttpUtils httpUtils;
+    private Path signature;
+    private Map<Object, Object> data;
+
+    @Setup
+    public void setUp() throws IOException {
+        httpUtils = new HttpUtils();
+        signature = BenchmarkSupport.createFile(fileSize);
+
+        JsonObject configuration = new JsonObject();
+        configuration.addProperty("profile", "AUTOMATIC");
+
+        data = new LinkedHashMap<>();
+        data.put("signature", signature);
+        data.put("jsonConfig", configuration);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        httpUtils.close();
+        Files.deleteIfExists(signature);
+    }
+
+    @Benchmark
+    public long buildAndConsume(Blackhole blackhole) throws IOException {
+        return BenchmarkSupport.drain(httpUtils.ofMimeMultipartData(data, "benchmark-boundary"), blackhole);
+    }
+}
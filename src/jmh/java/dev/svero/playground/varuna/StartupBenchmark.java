@@ -0,0 +1,93 @@
+package dev.svero.playground.varuna;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time from the start of a new JVM until the first validation request is
+ * answered, using the training run of the application (see {@link StartupTraining}). With
+ * {@code appCds} the JVM uses a dynamic AppCDS archive created by a training run in the
+ * setup, like the archive built by the {@code appcds} profile. AppCDS archives only support
+ * jar files on the class path, so the fat jar built in the package phase is started.
+ *
+ * @author Sven Roeseler
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    @Param({"false", "true"})
+    public boolean appCds;
+
+    private Path jar;
+    private Path archive;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        jar = findJar();
+
+        if (appCds) {
+            archive = Files.createTempFile("startup", ".jsa");
+            Files.delete(archive);
+
+            launch("-XX:ArchiveClassesAtExit=" + archive, "-Xlog:cds=error");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (archive != null) {
+            Files.deleteIfExists(archive);
+        }
+    }
+
+    @Benchmark
+    public int firstRequest() throws IOException, InterruptedException {
+        if (appCds) {
+            return launch("-XX:SharedArchiveFile=" + archive, "-Xshare:on");
+        }
+
+        return launch();
+    }
+
+    private int launch(String... jvmArguments) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(List.of(jvmArguments));
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--training-run");
+
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException("Training run failed with exit code " + exitCode);
+        }
+
+        return exitCode;
+    }
+
+    private static Path findJar() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of("target"), "*-jar-with-dependencies.jar")) {
+            for (Path file : files) {
+                return file;
+            }
+        }
+
+        throw new IllegalStateException("No jar with dependencies found, run the package phase first");
+    }
+}
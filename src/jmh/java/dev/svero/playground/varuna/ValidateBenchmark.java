@@ -0,0 +1,77 @@
+package dev.svero.playground.varuna;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.utils.HttpClientSettings;
+import dev.svero.playground.varuna.utils.HttpUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete validation request against a local stub server, i.e. the client-side
+ * overhead of a validation without the work done by the validation service.
+ *
+ * @author Sven Roeseler
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidateBenchmark {
+    @Param({"10240", "1048576"})
+    private long fileSize;
+
+    private HttpServer server;
+    private HttpUtils httpUtils;
+    private ValidationServiceClient client;
+    private ValidationServiceConfiguration configuration;
+    private Path signature;
+    private Path output;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] report = new byte[256 * 1024];
+        ThreadLocalRandom.current().nextBytes(report);
+
+        server = BenchmarkSupport.startStubServer(report);
+
+        HttpClientSettings settings = new HttpClientSettings();
+        settings.setHttp2Enabled(false);
+        httpUtils = new HttpUtils(null, settings);
+
+        client = new ValidationServiceClient(httpUtils, BenchmarkSupport.getBaseUrl(server), "/v1/validate");
+
+        configuration = new ValidationServiceConfiguration();
+        configuration.addReportConfiguration("PDF", "EN");
+        configuration.addReportConfiguration("SVR");
+        configuration.setMaxRecursionDepth(3);
+
+        signature = BenchmarkSupport.createFile(fileSize);
+        output = Files.createTempFile("benchmark", ".zip");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        httpUtils.close();
+        server.stop(0);
+        Files.deleteIfExists(signature);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public byte[] validateToMemory() throws IOException, InterruptedException {
+        return client.validate("token", configuration, signature, null);
+    }
+
+    @Benchmark
+    public Path validateToFile() throws IOException, InterruptedException {
+        return client.validate("token", configuration, signature, null, output);
+    }
+}
@@ -0,0 +1,232 @@
+package dev.svero.playground.varuna;
+
+import dev.svero.playground.varuna.metrics.LatencyHistogram;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import dev.svero.playground.varuna.models.AccessToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Provides access tokens from KeyCloak and caches them until shortly before they expire.
+ * A cached token is refreshed in the background before it expires. Concurrent requests for
+ * a new token are coalesced, so at most one request to KeyCloak is in flight at any time.
+ *
+ * @author Sven Roeseler
+ */
+public class AccessTokenProvider implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenProvider.class);
+
+    private final KeyCloakClient keyCloakClient;
+    private final Supplier<String> assertionSupplier;
+    private final Duration refreshSkew;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyHistogram fetchLatency;
+
+    private final AtomicReference<CompletableFuture<AccessToken>> inFlight = new AtomicReference<>();
+    private final AtomicReference<AccessToken> cachedToken = new AtomicReference<>();
+    private ScheduledFuture<?> scheduledRefresh;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param keyCloakClient Client for accessing KeyCloak
+     * @param assertionSupplier Supplies a signed JSON Web Token for each token request
+     * @param refreshSkew Minimum remaining lifetime of a token handed out to callers
+     */
+    public AccessTokenProvider(KeyCloakClient keyCloakClient, Supplier<String> assertionSupplier,
+                               Duration refreshSkew) {
+        this(keyCloakClient, assertionSupplier, refreshSkew, new MetricsRegistry());
+    }
+
+    /**
+     * Creates a new instance which records its metrics in the specified registry.
+     *
+     * @param keyCloakClient Client for accessing KeyCloak
+     * @param assertionSupplier Supplies a signed JSON Web Token for each token request
+     * @param refreshSkew Minimum remaining lifetime of a token handed out to callers
+     * @param metricsRegistry Registry for the metrics
+     */
+    public AccessTokenProvider(KeyCloakClient keyCloakClient, Supplier<String> assertionSupplier,
+                               Duration refreshSkew, MetricsRegistry metricsRegistry) {
+        if (keyCloakClient == null) {
+            throw new IllegalArgumentException("keyCloakClient may not be null");
+        }
+
+        if (assertionSupplier == null) {
+            throw new IllegalArgumentException("assertionSupplier may not be null");
+        }
+
+        if (refreshSkew == null || refreshSkew.isNegative()) {
+            throw new IllegalArgumentException("refreshSkew may not be null or negative");
+        }
+
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("metricsRegistry may not be null");
+        }
+
+        this.keyCloakClient = keyCloakClient;
+        this.assertionSupplier = assertionSupplier;
+        this.refreshSkew = refreshSkew;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "access-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.fetchLatency = metricsRegistry.histogram("token.fetch");
+        metricsRegistry.gauge("token.cache.hits", this::getHitCount);
+        metricsRegistry.gauge("token.cache.misses", this::getMissCount);
+        metricsRegistry.gauge("token.refreshes", this::getRefreshCount);
+        metricsRegistry.gauge("token.failures", this::getFailureCount);
+    }
+
+    /**
+     * Returns a valid access token, either from the cache or freshly requested from KeyCloak.
+     *
+     * @return Access token
+     */
+    public String getAccessToken() {
+        AccessToken token = cachedToken.get();
+
+        if (isUsable(token)) {
+            hitCount.incrementAndGet();
+            return token.getToken();
+        }
+
+        missCount.incrementAndGet();
+
+        try {
+            return refresh().join().getToken();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Removes the cached token if it is the specified one, so the next call requests a new
+     * one. Used when a service rejected the token; a token refreshed in the meantime is kept.
+     *
+     * @param rejectedToken Token rejected by the service
+     */
+    public void invalidate(final String rejectedToken) {
+        AccessToken token = cachedToken.get();
+
+        if (token != null && token.getToken().equals(rejectedToken) && cachedToken.compareAndSet(token, null)) {
+            LOGGER.debug("Access token rejected, requesting a new one");
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Requests a new token unless a request is already in flight, in which case the
+     * pending request is returned.
+     *
+     * @return Future completed with the new token
+     */
+    private CompletableFuture<AccessToken> refresh() {
+        while (true) {
+            CompletableFuture<AccessToken> pending = inFlight.get();
+            if (pending != null) {
+                return pending;
+            }
+
+            CompletableFuture<AccessToken> future = new CompletableFuture<>();
+            if (!inFlight.compareAndSet(null, future)) {
+                continue;
+            }
+
+            final long start = System.nanoTime();
+
+            try {
+                AccessToken token = keyCloakClient.requestAccessToken(assertionSupplier.get());
+                fetchLatency.recordSince(start);
+                if (token == null) {
+                    throw new IllegalStateException("KeyCloak returned no access token");
+                }
+
+                refreshCount.incrementAndGet();
+                cachedToken.set(token);
+                scheduleRefresh(token);
+                future.complete(token);
+            } catch (RuntimeException ex) {
+                failureCount.incrementAndGet();
+                future.completeExceptionally(ex);
+            } finally {
+                inFlight.set(null);
+            }
+
+            return future;
+        }
+    }
+
+    private synchronized void scheduleRefresh(final AccessToken token) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+
+        // Refresh one skew ahead of the point where the cached token stops being handed out
+        long delay = Duration.between(Instant.now(), token.getExpiresAt().minus(refreshSkew.multipliedBy(2)))
+                .toMillis();
+        if (delay <= 0) {
+            // The token lives shorter than the skew, refreshing in the background would not help
+            return;
+        }
+
+        scheduledRefresh = scheduler.schedule(() -> {
+            try {
+                refresh().join();
+            } catch (CompletionException ex) {
+                LOGGER.warn("Could not refresh the access token in the background", ex.getCause());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isUsable(final AccessToken token) {
+        return token != null && token.isValidAt(Instant.now().plus(refreshSkew));
+    }
+}
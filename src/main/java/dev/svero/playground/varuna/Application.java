@@ -1,20 +1,27 @@
 package dev.svero.playground.varuna;
 
+import dev.svero.playground.varuna.batch.BatchInputReader;
+import dev.svero.playground.varuna.batch.BatchItem;
+import dev.svero.playground.varuna.batch.BatchRunner;
+import dev.svero.playground.varuna.batch.JobJournal;
+import dev.svero.playground.varuna.batch.SizeAwareScheduler;
+import dev.svero.playground.varuna.models.ValidationResult;
 import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.server.ValidationDaemon;
+import dev.svero.playground.varuna.tenant.TenantRegistry;
 import dev.svero.playground.varuna.utils.HttpUtils;
-import dev.svero.playground.varuna.utils.KeyStoreUtils;
-import dev.svero.playground.varuna.utils.SSLUtils;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.SSLContext;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.KeyStore;
-import java.security.PrivateKey;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implements the entry point for the application.
@@ -25,10 +32,7 @@ public class Application {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Application.class);
 	private static final String PROPERTY_CONFIGURATION = "configuration";
 	private static final String ENVIRONMENT_CONFIGURATION = "VERUNA_CLIENT_CONFIG_FILE";
-
-	private static final JWTUtils JWT_UTILS = new JWTUtils();
-	private static final KeyStoreUtils KEY_STORE_UTILS = new KeyStoreUtils();
-	private static final SSLUtils SSL_UTILS = new SSLUtils();
+	private static final String OPTION_TRAINING_RUN = "training-run";
 
 	/**
 	 * Entry point for running the application.
@@ -39,6 +43,11 @@ public class Application {
 		try {
 			final CommandLine commandLine = parseCommandLine(args);
 
+			if (commandLine.hasOption(OPTION_TRAINING_RUN)) {
+				StartupTraining.run(createServiceConfiguration());
+				return;
+			}
+
 			String filename = getConfigurationFilename(commandLine);
 			LOGGER.debug("Reading settings from \"{}\"", filename);
 
@@ -48,117 +57,236 @@ public class Application {
 				System.exit(1);
 			}
 
-			final String keyStoreFilename = configuration.getString("keystore.filename", true);
-			final String keyStorePassword = configuration.getString("keystore.password", true);
-			final String keyStoreType = configuration.getString("keystore.type", "PKCS12");
-			KeyStore keyStore = KEY_STORE_UTILS.loadKeyStore(keyStoreFilename, keyStorePassword, keyStoreType);
+			// Process-wide, read by the JDK when the first HTTP client is created
+			HttpUtils.configureProcessSettings(configuration.getInteger("http.keepAliveTimeout", 300),
+					configuration.getInteger("http.connectionPoolSize", 0));
 
-			final String trustStoreFilename = configuration.getString("truststore.filename", true);
-			final String trustStorePassword = configuration.getString("truststore.password", true);
-			final String trustStoreType = configuration.getString("truststore.type", "PKCS12");
-			KeyStore trustStore = KEY_STORE_UTILS.loadKeyStore(trustStoreFilename, trustStorePassword, trustStoreType);
+			try (ClientContext clientContext = ClientContext.create(configuration)) {
+				ValidationServiceConfiguration serviceConfiguration = createServiceConfiguration();
 
-			SSLContext sslContext = SSL_UTILS.createSSLContext(keyStore, keyStorePassword, trustStore);
-
-			final String privateKeyAlias = configuration.getString("keystore.private_key.alias", true);
-			final String privateKeyPassword = configuration.getString("keystore.private_key.password", true);
-			final PrivateKey privateKey = KEY_STORE_UTILS.getKey(keyStore, privateKeyAlias, privateKeyPassword);
-			if (privateKey == null) {
-				throw new IllegalStateException("No private key found in specified keystore");
-			}
-
-			String keyCloakBaseUrl = configuration.getString("keycloak.baseUrl", true);
-			if (keyCloakBaseUrl.endsWith("/")) {
-				keyCloakBaseUrl = keyCloakBaseUrl.substring(0, keyCloakBaseUrl.lastIndexOf('/'));
+				if (commandLine.hasOption('d')) {
+					runDaemon(commandLine, configuration, clientContext, serviceConfiguration);
+				} else if (commandLine.hasOption('b')) {
+					runBatch(commandLine, configuration, clientContext, serviceConfiguration);
+				} else {
+					runSingle(commandLine, clientContext, serviceConfiguration);
+				}
 			}
-			final String keyCloakRealm = configuration.getString("keycloak.realm", true);
-
-			final String issuer = configuration.getString("keycloak.issuer", true);
-			final String audience = String.format("%s/realms/%s", keyCloakBaseUrl, keyCloakRealm);
-			final String subject = configuration.getString("keycloak.subject", true);
-			final String jwt = JWT_UTILS.generateJwt(issuer, audience, subject, privateKey);
+		} catch (Exception ex) {
+			LOGGER.error("An error occurred", ex);
+		}
+	}
 
-			final String validationServiceBaseUrl = configuration.getString("validationService.baseUrl", true);
-			final String validationServiceEndPoint = configuration.getString("validationService.endPoint", true);
+	/**
+	 * Validates a single signature file (and optional document) specified on the command-line.
+	 *
+	 * @param commandLine Parsed command-line
+	 * @param clientContext Context with the clients
+	 * @param serviceConfiguration Configuration for the validation
+	 * @throws Exception If the validation failed
+	 */
+	private static void runSingle(final CommandLine commandLine, final ClientContext clientContext,
+								  final ValidationServiceConfiguration serviceConfiguration) throws Exception {
+		if (!commandLine.hasOption('s')) {
+			LOGGER.error("You need to specify at least the signature file");
+			return;
+		}
 
-			HttpUtils httpUtils = new HttpUtils(sslContext);
+		final String signatureFileName = commandLine.getOptionValue('s');
+		LOGGER.debug("Signature file: {}", signatureFileName);
 
-			// ************************* Access KeyCloak *****************************************************
+		Path signatureFile = Path.of(signatureFileName);
 
-			KeyCloakClient keyCloakClient = new KeyCloakClient(httpUtils, keyCloakBaseUrl, keyCloakRealm);
-			String accessToken = keyCloakClient.getAccessToken(jwt);
-			LOGGER.debug("Token: {}", accessToken);
+		if (!Files.exists(signatureFile)) {
+			LOGGER.error("Could not find the signature file {}", signatureFileName);
+			return;
+		}
 
-			// ************************* Access Validation Service *******************************************
+		Path documentFile = null;
 
-			ValidationServiceClient validationServiceClient = new ValidationServiceClient(httpUtils,
-					validationServiceBaseUrl, validationServiceEndPoint);
+		if (commandLine.hasOption('f')) {
+			final String documentFilename = commandLine.getOptionValue('f');
 
-			ValidationServiceConfiguration serviceConfiguration = new ValidationServiceConfiguration();
-			serviceConfiguration.addReportConfiguration("PDF", "EN");
-			serviceConfiguration.addReportConfiguration("SVR");
-			serviceConfiguration.addReportConfiguration("HTML", "DE");
-			serviceConfiguration.setProfile("AUTOMATIC");
-			serviceConfiguration.setMaxRecursionDepth(3);
+			documentFile = Path.of(documentFilename);
 
-			if (!commandLine.hasOption('s')) {
-				LOGGER.error("You need to specify at least the signature file");
+			if (!Files.exists(documentFile)) {
+				LOGGER.error("The specified document file does not exist: {}", documentFilename);
 				return;
 			}
 
-			final String signatureFileName = commandLine.getOptionValue('s');
-			LOGGER.debug("Signature file: {}", signatureFileName);
+			LOGGER.debug("Document file: {}", documentFilename);
+		}
 
-			Path signatureFile = Path.of(signatureFileName);
+		String outputFilename;
 
-			if (!Files.exists(signatureFile)) {
-				LOGGER.error("Could not find the signature file {}", signatureFileName);
-				return;
-			}
+		if (commandLine.hasOption('o')) {
+			outputFilename = commandLine.getOptionValue('o');
+		} else {
+			DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
 
-			Path documentFile = null;
+			LocalDateTime now = LocalDateTime.now();
 
-			if (commandLine.hasOption('f')) {
-				final String documentFilename = commandLine.getOptionValue('f');
+			outputFilename = "ValidationReport_" + formatter.format(now) + ".zip";
+		}
 
-				documentFile = Path.of(documentFilename);
+		LOGGER.debug("Output: {}", outputFilename);
 
-				if (!Files.exists(documentFile)) {
-					LOGGER.error("The specified document file does not exist: {}", documentFilename);
-					return;
-				}
+		ValidationResult result = clientContext.getValidationServiceClient().validateWithResult(
+				clientContext.getAccessTokenProvider(), serviceConfiguration, signatureFile, documentFile,
+				Path.of(outputFilename));
+
+		if (result.getIndication() == null) {
+			LOGGER.info("No signature validation report received");
+			return;
+		}
 
-				LOGGER.debug("Document file: {}", documentFilename);
+		LOGGER.info("Validation result: {}", result.getIndication());
+		for (ValidationResult.SignatureResult signature : result.getSignatures()) {
+			LOGGER.info("Signature {}: {} {} (signing time {}, signer {})", signature.getId(),
+					signature.getIndication(), signature.getSubIndications(), signature.getSigningTime(),
+					signature.getSigner());
+		}
+	}
+
+	/**
+	 * Validates all files specified by the batch input. The output option is used as
+	 * directory for the validation reports, the summary and the job journal. With the resume
+	 * option the items already validated according to the journal are skipped.
+	 *
+	 * @param commandLine Parsed command-line
+	 * @param configuration Application configuration
+	 * @param clientContext Context with the clients
+	 * @param serviceConfiguration Configuration for the validation
+	 * @throws Exception If the batch could not be processed
+	 */
+	private static void runBatch(final CommandLine commandLine, final Configuration configuration,
+								 final ClientContext clientContext,
+								 final ValidationServiceConfiguration serviceConfiguration) throws Exception {
+		final String batchInput = commandLine.getOptionValue('b');
+		LOGGER.debug("Batch input: {}", batchInput);
+
+		List<BatchItem> items = new BatchInputReader().read(batchInput);
+		if (items.isEmpty()) {
+			LOGGER.warn("No files found for batch input {}", batchInput);
+			return;
+		}
+
+		Path outputDirectory = Path.of(commandLine.getOptionValue('o', "reports"));
+		LOGGER.debug("Output directory: {}", outputDirectory);
+
+		Files.createDirectories(outputDirectory);
+
+		boolean resume = commandLine.hasOption('r');
+		try (JobJournal journal = new JobJournal(outputDirectory.resolve(JobJournal.JOURNAL_FILENAME), !resume,
+				configuration.getInteger("batch.journal.syncBatchSize", 1000),
+				Duration.ofMillis(configuration.getInteger("batch.journal.syncInterval", 1000)))) {
+			if (resume) {
+				LOGGER.info("Resuming batch, {} items recorded in the journal", journal.size());
 			}
 
-			byte[] validationReportData = validationServiceClient.validate(accessToken, serviceConfiguration,
-					signatureFile, documentFile);
+			BatchRunner batchRunner = new BatchRunner(clientContext, serviceConfiguration, outputDirectory);
+			batchRunner.setJournal(journal);
 
-			if (validationReportData == null || validationReportData.length == 0) {
-				LOGGER.info("No validation report received");
-				return;
+			if (configuration.getBoolean("batch.scheduling.sizeAware", true)) {
+				batchRunner.setScheduler(new SizeAwareScheduler(
+						configuration.getInteger("batch.scheduling.largeThreshold", 64) * 1024L * 1024L,
+						configuration.getInteger("batch.scheduling.largeMaxInFlight", 2),
+						configuration.getInteger("batch.scheduling.byteBudget", 512) * 1024L * 1024L));
 			}
+			batchRunner.run(items);
+		}
+	}
 
-			String outputFilename;
+	/**
+	 * Runs the validation daemon until the JVM is shut down (e.g. by SIGTERM). The jobs in
+	 * flight are drained before the client context is closed.
+	 *
+	 * @param commandLine Parsed command-line
+	 * @param configuration Application configuration
+	 * @param clientContext Context with the clients
+	 * @param serviceConfiguration Configuration for the validation
+	 * @throws Exception If the daemon could not be started
+	 */
+	private static void runDaemon(final CommandLine commandLine, final Configuration configuration,
+								  final ClientContext clientContext,
+								  final ValidationServiceConfiguration serviceConfiguration) throws Exception {
+		InetSocketAddress address = new InetSocketAddress(configuration.getString("daemon.host", "127.0.0.1"),
+				configuration.getInteger("daemon.port", 8089));
+		Path outputDirectory = Path.of(commandLine.getOptionValue('o', "reports"));
+		Duration drainTimeout = Duration.ofSeconds(configuration.getInteger("daemon.drainTimeout", 60));
+
+		ValidationDaemon daemon = new ValidationDaemon(clientContext, serviceConfiguration, address,
+				outputDirectory, drainTimeout);
+		daemon.setInputRoots(parseInputRoots(configuration.getString("daemon.inputRoots", ".")));
+		daemon.setWorkerLimits(configuration.getInteger("daemon.threads", 16),
+				configuration.getInteger("daemon.queueSize", 64));
+
+		// Warm up the token so the first job does not pay for it
+		clientContext.getAccessTokenProvider().getAccessToken();
+
+		TenantRegistry tenantRegistry = null;
+		if (!configuration.getTenantIds().isEmpty()) {
+			tenantRegistry = new TenantRegistry(configuration,
+					Duration.ofSeconds(configuration.getInteger("tenants.idleTimeout", 900)));
+			daemon.setTenantRegistry(tenantRegistry);
+			LOGGER.info("Serving tenants {}", tenantRegistry.getTenantIds());
+		}
 
-			if (commandLine.hasOption('o')) {
-				outputFilename = commandLine.getOptionValue('o');
-			} else {
-				DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+		daemon.start();
 
-				LocalDateTime now = LocalDateTime.now();
+		final Thread mainThread = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			daemon.stop();
 
-				outputFilename = "ValidationReport_" + formatter.format(now) + ".zip";
+			try {
+				// Give the main thread the chance to close the client context
+				mainThread.join(drainTimeout.toMillis());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
 			}
+		}, "daemon-shutdown"));
 
-			LOGGER.debug("Output: {}", outputFilename);
-			Files.write(Path.of(outputFilename), validationReportData);
+		daemon.awaitStop();
 
-		} catch (Exception ex) {
-			LOGGER.error("An error occurred", ex);
+		if (tenantRegistry != null) {
+			tenantRegistry.close();
 		}
 	}
 
+	/**
+	 * Parses the comma-separated list of directories containing the files the daemon may validate.
+	 *
+	 * @param value List of directories
+	 * @return Input directories
+	 */
+	private static List<Path> parseInputRoots(final String value) {
+		List<Path> inputRoots = new ArrayList<>();
+
+		for (String entry : value.split(",")) {
+			if (!entry.isBlank()) {
+				inputRoots.add(Path.of(entry.trim()));
+			}
+		}
+
+		return inputRoots;
+	}
+
+	/**
+	 * Creates the configuration sent to the validation service.
+	 *
+	 * @return Validation service configuration
+	 */
+	private static ValidationServiceConfiguration createServiceConfiguration() {
+		ValidationServiceConfiguration serviceConfiguration = new ValidationServiceConfiguration();
+		serviceConfiguration.addReportConfiguration("PDF", "EN");
+		serviceConfiguration.addReportConfiguration("SVR");
+		serviceConfiguration.addReportConfiguration("HTML", "DE");
+		serviceConfiguration.setProfile("AUTOMATIC");
+		serviceConfiguration.setMaxRecursionDepth(3);
+
+		return serviceConfiguration;
+	}
+
 	/**
 	 * Returns the name of the file that contains the configuration.
 	 * 
@@ -193,14 +321,22 @@ public class Application {
 	private static Options buildCliOptions() {
 		Options options = new Options();
 
+		options.addOption("b", "batch", true,
+				"Directory, glob pattern or CSV/JSONL manifest with the files to validate");
 		options.addOption("c", "configuration", true,
 				"Name and path with the application properties");
+		options.addOption("d", "daemon", false,
+				"Runs as daemon accepting validation jobs over a local HTTP endpoint");
 		options.addOption("f", "file", true,
 				"Path and name of the signed document");
 		options.addOption("o", "output", true,
-				"Path and name for the generated validation report");
+				"Path and name for the generated validation report (output directory in batch and daemon mode)");
+		options.addOption("r", "resume", false,
+				"Resumes a batch run, items validated successfully according to the journal are skipped");
 		options.addOption("s", "signature", true,
 				"Path and name of the signature file");
+		options.addOption(null, OPTION_TRAINING_RUN, false,
+				"Sends a validation to a local stub server and exits (training run for the AppCDS archive)");
 
 		return options;
 	}
@@ -0,0 +1,239 @@
+package dev.svero.playground.varuna;
+
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Provides the signed client assertions (JSON Web Tokens) used to request access tokens and
+ * takes the signing off the hot path. Two modes are supported:
+ *
+ * <ul>
+ *     <li>Reuse: one assertion is handed out until shortly before it expires. Only usable if
+ *     the authorization server accepts an assertion more than once.</li>
+ *     <li>Pool: every assertion is handed out once and a background thread signs replacements
+ *     after each assertion taken from the pool. Pooled assertions which are about to expire are
+ *     discarded, so a pool only saves signing time if tokens are requested more often than
+ *     the assertions expire; otherwise every request signs on demand and the pool only adds
+ *     signatures.</li>
+ * </ul>
+ *
+ * <p>Signing on demand (pool size 0) is the default: KeyCloak rejects client assertions whose
+ * {@code jti} was already used, and the {@link AccessTokenProvider} refreshes its token in the
+ * background, so the signature is usually not on the path of a caller anyway.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class ClientAssertionProvider implements Supplier<String>, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientAssertionProvider.class);
+
+    private final Supplier<String> signer;
+    private final Duration validity;
+    private final Duration minRemaining;
+    private final boolean reuse;
+    private final int poolSize;
+
+    private final ConcurrentLinkedQueue<SignedAssertion> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final ExecutorService signerThread;
+    private volatile SignedAssertion current;
+
+    private final AtomicLong signedCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param signer Creates a new signed assertion valid for {@code validity}
+     * @param validity Validity of the assertions created by the signer
+     * @param minRemaining Minimum remaining validity of an assertion handed out
+     * @param reuse True if one assertion may be used for several token requests
+     * @param poolSize Number of pre-signed assertions (pool mode), 0 to sign on demand
+     */
+    public ClientAssertionProvider(Supplier<String> signer, Duration validity, Duration minRemaining,
+                                   boolean reuse, int poolSize) {
+        this(signer, validity, minRemaining, reuse, poolSize, new MetricsRegistry());
+    }
+
+    /**
+     * Creates a new instance which records its metrics in the specified registry.
+     *
+     * @param signer Creates a new signed assertion valid for {@code validity}
+     * @param validity Validity of the assertions created by the signer
+     * @param minRemaining Minimum remaining validity of an assertion handed out
+     * @param reuse True if one assertion may be used for several token requests
+     * @param poolSize Number of pre-signed assertions (pool mode), 0 to sign on demand
+     * @param metricsRegistry Registry for the metrics
+     */
+    public ClientAssertionProvider(Supplier<String> signer, Duration validity, Duration minRemaining,
+                                   boolean reuse, int poolSize, MetricsRegistry metricsRegistry) {
+        if (signer == null) {
+            throw new IllegalArgumentException("signer may not be null");
+        }
+
+        if (validity == null || validity.isNegative() || validity.isZero()) {
+            throw new IllegalArgumentException("validity must be positive");
+        }
+
+        if (minRemaining == null || minRemaining.isNegative() || minRemaining.compareTo(validity) >= 0) {
+            throw new IllegalArgumentException("minRemaining must be between 0 and validity");
+        }
+
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("poolSize may not be negative");
+        }
+
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("metricsRegistry may not be null");
+        }
+
+        this.signer = signer;
+        this.validity = validity;
+        this.minRemaining = minRemaining;
+        this.reuse = reuse;
+        this.poolSize = reuse ? 0 : poolSize;
+        this.signerThread = this.poolSize > 0 ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "assertion-signer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        metricsRegistry.gauge("assertion.signed", this::getSignedCount);
+        metricsRegistry.gauge("assertion.hits", this::getHitCount);
+        metricsRegistry.gauge("assertion.misses", this::getMissCount);
+
+        refill();
+    }
+
+    /**
+     * Returns a signed assertion with at least the minimum remaining validity.
+     *
+     * @return Signed assertion
+     */
+    @Override
+    public String get() {
+        return reuse ? getReused() : getPooled();
+    }
+
+    public long getSignedCount() {
+        return signedCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public void close() {
+        if (signerThread != null) {
+            signerThread.shutdownNow();
+        }
+    }
+
+    private String getReused() {
+        SignedAssertion assertion = current;
+
+        if (isUsable(assertion)) {
+            hitCount.incrementAndGet();
+            return assertion.token();
+        }
+
+        synchronized (this) {
+            assertion = current;
+
+            if (isUsable(assertion)) {
+                hitCount.incrementAndGet();
+                return assertion.token();
+            }
+
+            missCount.incrementAndGet();
+            assertion = sign();
+            current = assertion;
+        }
+
+        return assertion.token();
+    }
+
+    private String getPooled() {
+        SignedAssertion assertion;
+
+        while ((assertion = pool.poll()) != null) {
+            pooled.decrementAndGet();
+
+            if (isUsable(assertion)) {
+                hitCount.incrementAndGet();
+                refill();
+                return assertion.token();
+            }
+        }
+
+        missCount.incrementAndGet();
+        refill();
+
+        return sign().token();
+    }
+
+    /**
+     * Fills the pool in the background unless a refill is already running.
+     */
+    private void refill() {
+        if (signerThread == null || pooled.get() >= poolSize || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            signerThread.execute(() -> {
+                try {
+                    fill();
+                } finally {
+                    refilling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refilling.set(false);
+        }
+    }
+
+    private void fill() {
+        try {
+            while (pooled.get() < poolSize && !Thread.currentThread().isInterrupted()) {
+                pool.add(sign());
+                pooled.incrementAndGet();
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not pre-sign client assertion", ex);
+        }
+    }
+
+    private SignedAssertion sign() {
+        Instant expiresAt = Instant.now().plus(validity);
+        String token = signer.get();
+        signedCount.incrementAndGet();
+
+        return new SignedAssertion(token, expiresAt);
+    }
+
+    private boolean isUsable(final SignedAssertion assertion) {
+        return assertion != null && Instant.now().plus(minRemaining).isBefore(assertion.expiresAt());
+    }
+
+    private record SignedAssertion(String token, Instant expiresAt) {
+    }
+}
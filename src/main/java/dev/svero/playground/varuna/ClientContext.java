@@ -0,0 +1,463 @@
+package dev.svero.playground.varuna;
+
+import dev.svero.playground.varuna.balancer.Endpoint;
+import dev.svero.playground.varuna.balancer.HedgingPolicy;
+import dev.svero.playground.varuna.balancer.LoadBalancer;
+import dev.svero.playground.varuna.cache.ReportCache;
+import dev.svero.playground.varuna.metrics.JmxMetricsExporter;
+import dev.svero.playground.varuna.metrics.LatencyHistogram;
+import dev.svero.playground.varuna.metrics.MetricsExporter;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import dev.svero.playground.varuna.utils.ConcurrencyLimiter;
+import dev.svero.playground.varuna.utils.CredentialManager;
+import dev.svero.playground.varuna.utils.HttpClientSettings;
+import dev.svero.playground.varuna.utils.HttpUtils;
+import dev.svero.playground.varuna.utils.SSLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Holds the instances needed for accessing the validation service: SSL context, HTTP client,
+ * access token provider and validation service client. The instances are created once from
+ * the configuration and can be used for any number of validations.
+ *
+ * @author Sven Roeseler
+ */
+public class ClientContext implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientContext.class);
+
+    private final CredentialManager credentialManager;
+    private final HttpUtils httpUtils;
+    private final boolean shared;
+    private final ClientAssertionProvider clientAssertionProvider;
+    private final AccessTokenProvider accessTokenProvider;
+    private final ValidationServiceClient validationServiceClient;
+    private final ValidationEngine validationEngine;
+    private final MetricsRegistry metricsRegistry;
+    private final MetricsExporter metricsExporter;
+    private final Duration closeTimeout;
+
+    private ClientContext(CredentialManager credentialManager, HttpUtils httpUtils, boolean shared,
+                          ClientAssertionProvider clientAssertionProvider, AccessTokenProvider accessTokenProvider,
+                          ValidationServiceClient validationServiceClient, ValidationEngine validationEngine,
+                          MetricsRegistry metricsRegistry, MetricsExporter metricsExporter,
+                          Duration closeTimeout) {
+        this.credentialManager = credentialManager;
+        this.metricsRegistry = metricsRegistry;
+        this.metricsExporter = metricsExporter;
+        this.httpUtils = httpUtils;
+        this.shared = shared;
+        this.clientAssertionProvider = clientAssertionProvider;
+        this.accessTokenProvider = accessTokenProvider;
+        this.validationServiceClient = validationServiceClient;
+        this.validationEngine = validationEngine;
+        this.closeTimeout = closeTimeout;
+    }
+
+    /**
+     * Creates a new context using the specified configuration.
+     *
+     * @param configuration Configuration instance
+     * @return Created context
+     */
+    public static ClientContext create(final Configuration configuration) {
+        return create(configuration, null, null);
+    }
+
+    /**
+     * Creates a new context using the specified configuration. If an HTTP client is specified
+     * it is used instead of creating a new one, together with the credentials it was created
+     * from; they have to contain the TLS client certificate and the private key of the
+     * configured keystore and are neither watched nor closed by the context.
+     *
+     * @param configuration Configuration instance
+     * @param sharedHttpUtils HTTP client shared with other contexts or null
+     * @param sharedCredentialManager Credentials of the shared HTTP client or null
+     * @return Created context
+     */
+    public static ClientContext create(final Configuration configuration, final HttpUtils sharedHttpUtils,
+                                       final CredentialManager sharedCredentialManager) {
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration may not be null");
+        }
+
+        if ((sharedHttpUtils == null) != (sharedCredentialManager == null)) {
+            throw new IllegalArgumentException(
+                    "sharedHttpUtils and sharedCredentialManager must be specified together");
+        }
+
+        final boolean shared = sharedHttpUtils != null;
+        CredentialManager credentialManager = shared ? sharedCredentialManager
+                : createCredentialManager(configuration);
+
+        String keyCloakBaseUrl = configuration.getString("keycloak.baseUrl", true);
+        if (keyCloakBaseUrl.endsWith("/")) {
+            keyCloakBaseUrl = keyCloakBaseUrl.substring(0, keyCloakBaseUrl.lastIndexOf('/'));
+        }
+        final String keyCloakRealm = configuration.getString("keycloak.realm", true);
+
+        final String issuer = configuration.getString("keycloak.issuer", true);
+        final String audience = String.format("%s/realms/%s", keyCloakBaseUrl, keyCloakRealm);
+        final String subject = configuration.getString("keycloak.subject", true);
+
+        final List<Endpoint> validationServiceEndpoints = Endpoint.parseList(
+                configuration.getString("validationService.baseUrl", true));
+        final String validationServiceEndPoint = configuration.getString("validationService.endPoint", true);
+
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        HttpUtils httpUtils = shared ? sharedHttpUtils
+                : new HttpUtils(credentialManager.getSSLContext(), createHttpClientSettings(configuration),
+                metricsRegistry);
+        setRequestTimeout(configuration, httpUtils, "http.requestTimeout.keycloak", keyCloakBaseUrl);
+        for (Endpoint endpoint : validationServiceEndpoints) {
+            setRequestTimeout(configuration, httpUtils, "http.requestTimeout.validationService",
+                    endpoint.getBaseUrl());
+        }
+
+        LatencyHistogram signingLatency = metricsRegistry.histogram("jwt.sign");
+        final Duration assertionValidity = Duration.ofSeconds(
+                configuration.getInteger("keycloak.assertion.validity", 60));
+        ClientAssertionProvider clientAssertionProvider = new ClientAssertionProvider(
+                () -> {
+                    final long start = System.nanoTime();
+                    String jwt = JwtUtilsHolder.JWT_UTILS.generateJwt(issuer, audience, subject,
+                            credentialManager.getPrivateKey(), assertionValidity);
+                    signingLatency.recordSince(start);
+                    return jwt;
+                },
+                assertionValidity,
+                Duration.ofSeconds(configuration.getInteger("keycloak.assertion.minRemaining", 10)),
+                configuration.getBoolean("keycloak.assertion.reuse", false),
+                configuration.getInteger("keycloak.assertion.poolSize", 0), metricsRegistry);
+
+        AccessTokenProvider accessTokenProvider = new AccessTokenProvider(
+                new KeyCloakClient(httpUtils, keyCloakBaseUrl, keyCloakRealm), clientAssertionProvider,
+                Duration.ofSeconds(configuration.getInteger("keycloak.token.refreshSkew", 30)), metricsRegistry);
+
+        ValidationServiceClient validationServiceClient = new ValidationServiceClient(httpUtils,
+                createLoadBalancer(configuration, validationServiceEndpoints, httpUtils, metricsRegistry),
+                validationServiceEndPoint);
+        ConcurrencyLimiter concurrencyLimiter = createConcurrencyLimiter(configuration);
+
+        if (configuration.getBoolean("validationService.hedging.enabled", false)) {
+            validationServiceClient.setHedgingPolicy(new HedgingPolicy(
+                    configuration.getInteger("validationService.hedging.percentile", 95),
+                    configuration.getInteger("validationService.hedging.budget", 5),
+                    Duration.ofMillis(configuration.getInteger("validationService.hedging.minDelay", 1000)),
+                    metricsRegistry), concurrencyLimiter.getMaxLimit());
+        }
+
+        if (configuration.getBoolean("cache.enabled", false)) {
+            ReportCache reportCache = createReportCache(configuration);
+            metricsRegistry.gauge("cache.hits", reportCache::getHitCount);
+            metricsRegistry.gauge("cache.misses", reportCache::getMissCount);
+            metricsRegistry.gauge("cache.evictions", reportCache::getEvictionCount);
+            metricsRegistry.gauge("cache.size", reportCache::getCurrentSize);
+            validationServiceClient.setReportCache(reportCache);
+        }
+
+        ValidationEngine validationEngine = new ValidationEngine(validationServiceClient, accessTokenProvider,
+                concurrencyLimiter);
+        metricsRegistry.gauge("validation.limit", validationEngine::getMaxInFlight);
+        metricsRegistry.gauge("validation.inFlight", validationEngine::getInFlight);
+
+        metricsRegistry.gauge("credentials.reloads", credentialManager::getReloadCount);
+        metricsRegistry.gauge("credentials.reloadFailures", credentialManager::getReloadFailureCount);
+
+        if (!shared) {
+            watchCredentials(configuration, credentialManager);
+        }
+
+        MetricsExporter metricsExporter = null;
+        if (configuration.getBoolean("metrics.jmx.enabled", true)) {
+            metricsExporter = new JmxMetricsExporter(configuration.getString("metrics.jmx.name", "default"));
+            metricsExporter.export(metricsRegistry);
+        }
+
+        int warmUpConnections = configuration.getInteger("http.warmUp.connections", 0);
+        if (warmUpConnections > 0) {
+            List<String> urls = new ArrayList<>();
+            urls.add(keyCloakBaseUrl);
+            validationServiceEndpoints.forEach(endpoint -> urls.add(endpoint.getBaseUrl()));
+
+            warmUp(httpUtils, accessTokenProvider, warmUpConnections,
+                    Duration.ofMillis(configuration.getInteger("http.warmUp.timeout", 10000)),
+                    urls.toArray(new String[0]));
+        }
+
+        LOGGER.debug("Client context created");
+
+        return new ClientContext(credentialManager, httpUtils, shared, clientAssertionProvider,
+                accessTokenProvider, validationServiceClient, validationEngine, metricsRegistry, metricsExporter,
+                Duration.ofSeconds(configuration.getInteger("daemon.drainTimeout", 60)));
+    }
+
+    public CredentialManager getCredentialManager() {
+        return credentialManager;
+    }
+
+    public HttpUtils getHttpUtils() {
+        return httpUtils;
+    }
+
+    public AccessTokenProvider getAccessTokenProvider() {
+        return accessTokenProvider;
+    }
+
+    public ValidationServiceClient getValidationServiceClient() {
+        return validationServiceClient;
+    }
+
+    public ValidationEngine getValidationEngine() {
+        return validationEngine;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    @Override
+    public void close() {
+        validationEngine.close(closeTimeout);
+        validationServiceClient.getLoadBalancer().close();
+        accessTokenProvider.close();
+        clientAssertionProvider.close();
+        if (!shared) {
+            credentialManager.close();
+            httpUtils.close();
+        }
+
+        if (metricsExporter != null) {
+            metricsExporter.close();
+        }
+    }
+
+    /**
+     * Creates an HTTP client using the TLS client certificate and trust store of the
+     * specified credential manager. The client can be shared by several contexts with the same
+     * TLS identity; the caller owns the credential manager and closes it after the client.
+     *
+     * @param configuration Configuration instance
+     * @param credentialManager Credentials of the TLS identity (see {@link #createCredentialManager(Configuration)})
+     * @param metricsRegistry Registry for the HTTP metrics
+     * @return HTTP client
+     */
+    public static HttpUtils createHttpUtils(final Configuration configuration,
+                                            final CredentialManager credentialManager,
+                                            final MetricsRegistry metricsRegistry) {
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration may not be null");
+        }
+
+        if (credentialManager == null) {
+            throw new IllegalArgumentException("credentialManager may not be null");
+        }
+
+        return new HttpUtils(credentialManager.getSSLContext(),
+                createHttpClientSettings(configuration), metricsRegistry);
+    }
+
+    /**
+     * Creates the credential manager for the key store and trust store of the configuration
+     * and configures the TLS session cache of its SSL context.
+     *
+     * @param configuration Configuration instance
+     * @return Credential manager with the loaded credentials
+     */
+    public static CredentialManager createCredentialManager(final Configuration configuration) {
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration may not be null");
+        }
+
+        CredentialManager credentialManager = new CredentialManager(
+                new CredentialManager.StoreSource(Path.of(configuration.getString("keystore.filename", true)),
+                        configuration.getString("keystore.password", true),
+                        configuration.getString("keystore.type", "PKCS12")),
+                new CredentialManager.StoreSource(Path.of(configuration.getString("truststore.filename", true)),
+                        configuration.getString("truststore.password", true),
+                        configuration.getString("truststore.type", "PKCS12")),
+                configuration.getString("keystore.private_key.alias", true),
+                configuration.getString("keystore.private_key.password", true));
+        configureSessionCache(configuration, credentialManager);
+
+        return credentialManager;
+    }
+
+    /**
+     * Starts watching the store files of the credential manager unless disabled by
+     * {@code credentials.watch}. Failures are logged only.
+     *
+     * @param configuration Configuration instance
+     * @param credentialManager Credential manager to watch
+     */
+    public static void watchCredentials(final Configuration configuration, final CredentialManager credentialManager) {
+        if (!configuration.getBoolean("credentials.watch", true)) {
+            return;
+        }
+
+        try {
+            credentialManager.startWatching(Duration.ofMillis(configuration.getInteger("credentials.reloadDelay",
+                    1000)));
+        } catch (IOException ex) {
+            LOGGER.warn("Could not watch the key store and trust store for changes", ex);
+        }
+    }
+
+    /**
+     * Creates the load balancer for the nodes of the validation service and starts the health
+     * checks if a health check path is configured.
+     */
+    private static LoadBalancer createLoadBalancer(final Configuration configuration, final List<Endpoint> endpoints,
+                                                   final HttpUtils httpUtils, final MetricsRegistry metricsRegistry) {
+        LoadBalancer loadBalancer = new LoadBalancer(endpoints, metricsRegistry,
+                configuration.getInteger("validationService.ejection.failureThreshold", 5),
+                configuration.getInteger("validationService.ejection.slowFactor", 300) / 100.0,
+                Duration.ofMillis(configuration.getInteger("validationService.ejection.time", 30000)),
+                configuration.getInteger("validationService.ejection.maxPercent", 50));
+
+        String healthCheckPath = configuration.getString("validationService.healthCheck.path", "");
+        if (endpoints.size() > 1 && !healthCheckPath.isBlank()) {
+            loadBalancer.startHealthChecks(httpUtils, healthCheckPath,
+                    Duration.ofMillis(configuration.getInteger("validationService.healthCheck.interval", 10000)),
+                    Duration.ofMillis(configuration.getInteger("validationService.healthCheck.timeout", 5000)));
+        }
+
+        if (endpoints.size() > 1) {
+            LOGGER.info("Distributing validations across {}", endpoints);
+        }
+
+        return loadBalancer;
+    }
+
+    private static void configureSessionCache(final Configuration configuration,
+                                              final CredentialManager credentialManager) {
+        SslUtilsHolder.SSL_UTILS.configureSessionCache(credentialManager.getSSLContext(),
+                configuration.getInteger("tls.sessionCacheSize", 1000),
+                Duration.ofSeconds(configuration.getInteger("tls.sessionTimeout", 86400)));
+    }
+
+    /**
+     * Opens connections to the KeyCloak and validation service hosts and fetches the first
+     * access token, so the first validation does not pay for handshakes and token request.
+     * Failures are logged only; the requests are retried when they are needed.
+     */
+    private static void warmUp(final HttpUtils httpUtils, final AccessTokenProvider accessTokenProvider,
+                               int connections, final Duration timeout, final String... urls) {
+        try {
+            for (String url : urls) {
+                httpUtils.warmUp(url, connections, timeout);
+            }
+
+            accessTokenProvider.getAccessToken();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Warm-up failed", ex);
+        }
+    }
+
+    /**
+     * Creates the settings for the shared HTTP client from the configuration.
+     *
+     * @param configuration Configuration instance
+     * @return Settings for the HTTP client
+     */
+    private static HttpClientSettings createHttpClientSettings(final Configuration configuration) {
+        HttpClientSettings settings = new HttpClientSettings();
+
+        settings.setConnectTimeout(Duration.ofMillis(configuration.getInteger("http.connectTimeout",
+                (int) settings.getConnectTimeout().toMillis())));
+        settings.setRequestTimeout(Duration.ofMillis(configuration.getInteger("http.requestTimeout",
+                (int) settings.getRequestTimeout().toMillis())));
+        settings.setHttp2Enabled(configuration.getBoolean("http.http2", settings.isHttp2Enabled()));
+        settings.setMaxThreads(configuration.getInteger("http.maxThreads", settings.getMaxThreads()));
+        settings.setMaxAttempts(configuration.getInteger("http.retry.maxAttempts", settings.getMaxAttempts()));
+        settings.setInitialRetryDelay(Duration.ofMillis(configuration.getInteger("http.retry.initialDelay",
+                (int) settings.getInitialRetryDelay().toMillis())));
+        settings.setMaxRetryDelay(Duration.ofMillis(configuration.getInteger("http.retry.maxDelay",
+                (int) settings.getMaxRetryDelay().toMillis())));
+        settings.setCircuitBreakerFailureThreshold(configuration.getInteger("http.circuitBreaker.failureThreshold",
+                settings.getCircuitBreakerFailureThreshold()));
+        settings.setCircuitBreakerOpenDuration(Duration.ofMillis(configuration.getInteger(
+                "http.circuitBreaker.openDuration", (int) settings.getCircuitBreakerOpenDuration().toMillis())));
+        settings.setRequestCompression(HttpClientSettings.Compression.valueOf(configuration.getString(
+                "http.compression", settings.getRequestCompression().name()).trim().toUpperCase(Locale.ROOT)));
+        settings.setCompressionThreshold(configuration.getInteger("http.compression.threshold",
+                (int) settings.getCompressionThreshold()));
+        settings.setAcceptCompressedResponses(configuration.getBoolean("http.acceptCompressedResponses",
+                settings.isAcceptCompressedResponses()));
+        settings.setTlsProtocols(Arrays.stream(configuration.getString("tls.protocols",
+                        String.join(",", settings.getTlsProtocols())).split(","))
+                .map(String::trim).filter(protocol -> !protocol.isEmpty()).toList());
+
+        return settings;
+    }
+
+    /**
+     * Creates the limiter for the concurrent validations. With an adaptive limit the
+     * configured maximum is an upper bound and the limit starts at the minimum.
+     *
+     * @param configuration Configuration instance
+     * @return Limiter instance
+     */
+    private static ConcurrencyLimiter createConcurrencyLimiter(final Configuration configuration) {
+        int maxInFlight = configuration.getInteger("validationService.maxInFlight", 4);
+
+        if (!configuration.getBoolean("validationService.adaptiveLimit", false)) {
+            return new ConcurrencyLimiter(maxInFlight);
+        }
+
+        int minInFlight = Math.min(maxInFlight, configuration.getInteger("validationService.minInFlight", 1));
+
+        return new ConcurrencyLimiter(minInFlight, minInFlight, maxInFlight,
+                configuration.getInteger("validationService.latencyTolerance", 200) / 100.0,
+                configuration.getInteger("validationService.backoffRatio", 90) / 100.0);
+    }
+
+    /**
+     * Creates the report cache from the configuration.
+     *
+     * @param configuration Configuration instance
+     * @return Report cache
+     */
+    private static ReportCache createReportCache(final Configuration configuration) {
+        Path directory = Path.of(configuration.getString("cache.directory", ".varuna-cache"));
+        long maxSize = configuration.getInteger("cache.maxSize", 1024) * 1024L * 1024L;
+        Duration timeToLive = Duration.ofSeconds(configuration.getInteger("cache.ttl", 86400));
+
+        try {
+            return new ReportCache(directory, maxSize, timeToLive);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not open the report cache in " + directory, ex);
+        }
+    }
+
+    private static void setRequestTimeout(final Configuration configuration, final HttpUtils httpUtils,
+                                          final String key, final String urlPrefix) {
+        int timeout = configuration.getInteger(key, 0);
+        if (timeout > 0) {
+            httpUtils.setRequestTimeout(urlPrefix, Duration.ofMillis(timeout));
+        }
+    }
+
+    /**
+     * Creates the JWT utilities (and loads the JWT library) when the first client assertion
+     * is signed, not when the class is loaded.
+     */
+    private static final class JwtUtilsHolder {
+        private static final JWTUtils JWT_UTILS = new JWTUtils();
+    }
+
+    private static final class SslUtilsHolder {
+        private static final SSLUtils SSL_UTILS = new SSLUtils();
+    }
+}
@@ -9,6 +9,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -141,4 +143,66 @@ public class Configuration {
 
         return value;
     }
+
+    /**
+     * Gets the value of the specified key as boolean value.
+     *
+     * @param key Key
+     * @param defaultValue Default value if key was not found
+     * @return Value
+     */
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+        String strValue = getString(key);
+        if (StringUtils.isBlank(strValue)) {
+            return defaultValue;
+        }
+
+        return Boolean.parseBoolean(strValue.trim());
+    }
+
+    /**
+     * Returns the ids of the tenants listed (comma-separated) in the key "tenants".
+     *
+     * @return List with tenant ids, empty if no tenants are configured
+     */
+    public List<String> getTenantIds() {
+        String value = getString("tenants");
+        if (StringUtils.isBlank(value)) {
+            return List.of();
+        }
+
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .distinct()
+                .toList();
+    }
+
+    /**
+     * Returns the configuration of the specified tenant. Settings with the prefix
+     * "tenants.&lt;tenantId&gt;." override the settings without prefix, all other settings
+     * are inherited.
+     *
+     * @param tenantId Id of the tenant
+     * @return Configuration of the tenant
+     */
+    public Configuration forTenant(final String tenantId) {
+        if (StringUtils.isBlank(tenantId)) {
+            throw new IllegalArgumentException("tenantId may not be blank");
+        }
+
+        final String prefix = "tenants." + tenantId + ".";
+
+        Configuration configuration = new Configuration();
+        configuration.properties.putAll(properties);
+        configuration.properties.setProperty("metrics.jmx.name", tenantId);
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                configuration.properties.setProperty(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+
+        return configuration;
+    }
 }
@@ -4,6 +4,7 @@ import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
 
 import java.security.PrivateKey;
+import java.time.Duration;
 import java.util.Date;
 import java.util.UUID;
 
@@ -21,6 +22,23 @@ public class JWTUtils {
      */
     public String generateJwt(final String issuer, final String audience, final String subject,
                               final PrivateKey privateKey) {
+        return generateJwt(issuer, audience, subject, privateKey, null);
+    }
+
+    /**
+     * Generates a JSON Web Token which is valid from now on for the specified duration
+     * ({@code nbf} and {@code exp} claims).
+     *
+     * @param privateKey Private key to sign the token
+     * @param validity Validity of the token or null for a token without expiry
+     * @return Generated JSON Web Token
+     */
+    public String generateJwt(final String issuer, final String audience, final String subject,
+                              final PrivateKey privateKey, final Duration validity) {
+        if (validity != null && (validity.isNegative() || validity.isZero())) {
+            throw new IllegalArgumentException("validity must be positive");
+        }
+
         Date now = new Date();
 
         JwtBuilder builder = Jwts.builder()
@@ -33,6 +51,10 @@ public class JWTUtils {
 
         builder.audience().add(audience);
 
+        if (validity != null) {
+            builder.notBefore(now).expiration(new Date(now.getTime() + validity.toMillis()));
+        }
+
         return builder.compact();
     }
 }
\ No newline at end of file
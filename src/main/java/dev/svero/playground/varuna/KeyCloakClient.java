@@ -2,12 +2,14 @@ package dev.svero.playground.varuna;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import dev.svero.playground.varuna.models.AccessToken;
 import dev.svero.playground.varuna.utils.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Instant;
 
 /**
  * Implements methods for accessing a KeyCloak server.
@@ -17,6 +19,8 @@ import java.net.URISyntaxException;
 public class KeyCloakClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(KeyCloakClient.class);
     private static final String ACCESS_TOKEN_KEY = "access_token";
+    private static final String EXPIRES_IN_KEY = "expires_in";
+    private static final String REFRESH_EXPIRES_IN_KEY = "refresh_expires_in";
 
     private final HttpUtils httpUtils;
     private final String keyCloakBaseUrl;
@@ -42,7 +46,20 @@ public class KeyCloakClient {
      * @return Created access token
      */
     public String getAccessToken(final String signedJsonWebToken) {
-        String accessToken = null;
+        AccessToken accessToken = requestAccessToken(signedJsonWebToken);
+
+        return accessToken == null ? null : accessToken.getToken();
+    }
+
+    /**
+     * Tries to get an access token for the specified signed JSON Web Token from KeyCloak
+     * including its lifetime.
+     *
+     * @param signedJsonWebToken Signed JSON Web Token
+     * @return Created access token or null if the response contained no token
+     */
+    public AccessToken requestAccessToken(final String signedJsonWebToken) {
+        final Instant requestedAt = Instant.now();
 
         String tokenRequestData = "grant_type=client_credentials" +
                 "&client_assertion_type=urn:ietf:params:oauth:client-assertion-type:jwt-bearer" +
@@ -55,7 +72,8 @@ public class KeyCloakClient {
 
         String result;
         try {
-            result = httpUtils.postRequest(url, tokenRequestData);
+            // The client assertion may only be used once, a retry after a timeout would be rejected
+            result = httpUtils.postRequest(url, tokenRequestData, false);
             LOGGER.debug("Raw result: {}", result);
         } catch (IOException | URISyntaxException | InterruptedException e) {
             LOGGER.error("Could not successfully perform the HTTP request to KeyCloak", e);
@@ -63,12 +81,21 @@ public class KeyCloakClient {
         }
 
         JsonObject jsonObject = JsonParser.parseString(result).getAsJsonObject();
-        if (jsonObject.has(ACCESS_TOKEN_KEY)) {
-            accessToken = jsonObject.get(ACCESS_TOKEN_KEY).getAsString();
-        } else {
+        if (!jsonObject.has(ACCESS_TOKEN_KEY)) {
             LOGGER.error("No access token found in received data!");
+            return null;
+        }
+
+        // The lifetime is measured from the time the request was sent to stay on the safe side
+        return new AccessToken(jsonObject.get(ACCESS_TOKEN_KEY).getAsString(), requestedAt,
+                getLong(jsonObject, EXPIRES_IN_KEY), getLong(jsonObject, REFRESH_EXPIRES_IN_KEY));
+    }
+
+    private static long getLong(final JsonObject jsonObject, final String key) {
+        if (!jsonObject.has(key) || jsonObject.get(key).isJsonNull()) {
+            return 0;
         }
 
-        return accessToken;
+        return jsonObject.get(key).getAsLong();
     }
 }
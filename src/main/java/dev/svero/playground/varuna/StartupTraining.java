@@ -0,0 +1,197 @@
+package dev.svero.playground.varuna;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import dev.svero.playground.varuna.models.ValidationResult;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.utils.CredentialManager;
+import dev.svero.playground.varuna.utils.HttpClientSettings;
+import dev.svero.playground.varuna.utils.HttpUtils;
+import dev.svero.playground.varuna.utils.KeyStoreUtils;
+import dev.svero.playground.varuna.utils.SSLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs the path from the start of the application to the first validation request without
+ * a key store, KeyCloak or a validation service: a self-signed key store is generated with
+ * {@code keytool}, loaded by a {@link CredentialManager} and used for the client assertion and
+ * the TLS connections to a local HTTPS stub server, which answers the token request of the
+ * {@link KeyCloakClient} and the validation. It is used as training run for the AppCDS
+ * archive (see the {@code appcds} profile), so the archive contains the classes loaded
+ * until the first request.
+ *
+ * @author Sven Roeseler
+ */
+final class StartupTraining {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupTraining.class);
+
+    private static final String ALIAS = "training";
+    private static final String REALM = "training";
+    private static final String TOKEN = """
+            {"access_token": "training", "expires_in": 300, "refresh_expires_in": 0, "token_type": "Bearer"}
+            """;
+    private static final String REPORT = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <ValidationReport xmlns="http://uri.etsi.org/19102/v1.2.1#">
+              <SignatureValidationReport>
+                <SignatureIdentifier id="training"/>
+                <SignatureValidationStatus>
+                  <MainIndication>urn:etsi:019102:mainindication:total-passed</MainIndication>
+                </SignatureValidationStatus>
+              </SignatureValidationReport>
+            </ValidationReport>
+            """;
+
+    private StartupTraining() {
+    }
+
+    /**
+     * Runs the training.
+     *
+     * @param serviceConfiguration Configuration for the validation
+     * @throws Exception If the training failed
+     */
+    static void run(final ValidationServiceConfiguration serviceConfiguration) throws Exception {
+        long start = System.nanoTime();
+        Path directory = Files.createTempDirectory("varuna-training");
+
+        try {
+            String password = UUID.randomUUID().toString();
+            Path keyStoreFile = createKeyStore(directory, password);
+            CredentialManager.StoreSource storeSource = new CredentialManager.StoreSource(keyStoreFile, password,
+                    "PKCS12");
+
+            HttpUtils.configureProcessSettings(300, 0);
+
+            HttpsServer server = startStubServer(createServerContext(keyStoreFile, password), createReport());
+
+            try (CredentialManager credentialManager = new CredentialManager(storeSource, storeSource, ALIAS,
+                    password);
+                 HttpUtils httpUtils = new HttpUtils(credentialManager.getSSLContext(), new HttpClientSettings(),
+                         new MetricsRegistry())) {
+                String baseUrl = "https://" + server.getAddress().getHostString() + ":"
+                        + server.getAddress().getPort();
+                Duration validity = Duration.ofMinutes(1);
+
+                try (ClientAssertionProvider assertionProvider = new ClientAssertionProvider(
+                        () -> new JWTUtils().generateJwt(ALIAS, baseUrl + "/realms/" + REALM, ALIAS,
+                                credentialManager.getPrivateKey(), validity),
+                        validity, Duration.ofSeconds(10), false, 0);
+                     AccessTokenProvider accessTokenProvider = new AccessTokenProvider(
+                             new KeyCloakClient(httpUtils, baseUrl, REALM), assertionProvider,
+                             Duration.ofSeconds(30))) {
+                    Path signature = Files.writeString(directory.resolve("signature.p7s"), "training");
+
+                    ValidationResult result = new ValidationServiceClient(httpUtils, baseUrl, "/validate")
+                            .validateWithResult(accessTokenProvider, serviceConfiguration, signature, null,
+                                    directory.resolve("report.zip"));
+
+                    LOGGER.info("Training run finished in {} ms, result {}",
+                            (System.nanoTime() - start) / 1_000_000, result.getIndication());
+                }
+            } finally {
+                server.stop(0);
+            }
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : files.toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Generates a key store with a self-signed EC key pair for the loopback address using the
+     * {@code keytool} of the running JDK.
+     */
+    private static Path createKeyStore(final Path directory, final String password)
+            throws IOException, InterruptedException {
+        Path keyStoreFile = directory.resolve("training.p12");
+        Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", ALIAS,
+                "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keyStoreFile.toString(), "-storepass", password, "-keypass", password, "-noprompt")
+                .redirectErrorStream(true)
+                .start();
+
+        String output;
+        try (InputStream inputStream = process.getInputStream()) {
+            output = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+            process.destroyForcibly();
+            throw new IOException("Could not generate the training key store: " + output);
+        }
+
+        return keyStoreFile;
+    }
+
+    private static SSLContext createServerContext(final Path keyStoreFile, final String password) {
+        KeyStore keyStore = new KeyStoreUtils().loadKeyStore(keyStoreFile.toString(), password, "PKCS12");
+        return new SSLUtils().createSSLContext(keyStore, password, keyStore);
+    }
+
+    private static byte[] createReport() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            zipOutputStream.putNextEntry(new ZipEntry("report.xml"));
+            zipOutputStream.write(REPORT.getBytes(StandardCharsets.UTF_8));
+            zipOutputStream.closeEntry();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static HttpsServer startStubServer(final SSLContext sslContext, final byte[] report) throws IOException {
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+
+        server.createContext("/realms/" + REALM + "/protocol/openid-connect/token",
+                exchange -> respond(exchange, "application/json", TOKEN.getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/validate", exchange -> respond(exchange, "application/zip", report));
+        server.start();
+
+        return server;
+    }
+
+    private static void respond(final HttpExchange exchange, final String contentType, final byte[] response)
+            throws IOException {
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, response.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(response);
+        }
+    }
+}
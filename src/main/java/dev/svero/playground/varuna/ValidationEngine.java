@@ -0,0 +1,262 @@
+package dev.svero.playground.varuna;
+
+import dev.svero.playground.varuna.exceptions.CircuitOpenException;
+import dev.svero.playground.varuna.exceptions.HttpStatusException;
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.utils.ConcurrencyLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs validations concurrently. The number of validations in flight is limited; callers
+ * submitting more validations are blocked until a running validation has finished, so
+ * memory and thread usage stay bounded regardless of the number of submitted validations.
+ * The limit is either fixed or adapted to the latency of the validation service by a
+ * {@link ConcurrencyLimiter}.
+ *
+ * <p>On Java 21 and later each validation runs on a virtual thread, on older versions a
+ * fixed pool of platform threads sized to the in-flight limit is used.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class ValidationEngine implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationEngine.class);
+    private static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(30);
+
+    private final ValidationServiceClient validationServiceClient;
+    private final AccessTokenProvider accessTokenProvider;
+    private final ConcurrencyLimiter limiter;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param validationServiceClient Client for the validation service
+     * @param accessTokenProvider Provider for the access tokens
+     * @param maxInFlight Maximum number of concurrent validations
+     */
+    public ValidationEngine(ValidationServiceClient validationServiceClient, AccessTokenProvider accessTokenProvider,
+                            int maxInFlight) {
+        this(validationServiceClient, accessTokenProvider, createLimiter(maxInFlight));
+    }
+
+    /**
+     * Creates a new instance whose number of concurrent validations is controlled by the
+     * specified limiter.
+     *
+     * @param validationServiceClient Client for the validation service
+     * @param accessTokenProvider Provider for the access tokens
+     * @param limiter Limiter for the concurrent validations
+     */
+    public ValidationEngine(ValidationServiceClient validationServiceClient, AccessTokenProvider accessTokenProvider,
+                            ConcurrencyLimiter limiter) {
+        if (validationServiceClient == null) {
+            throw new IllegalArgumentException("validationServiceClient may not be null");
+        }
+
+        if (accessTokenProvider == null) {
+            throw new IllegalArgumentException("accessTokenProvider may not be null");
+        }
+
+        if (limiter == null) {
+            throw new IllegalArgumentException("limiter may not be null");
+        }
+
+        this.validationServiceClient = validationServiceClient;
+        this.accessTokenProvider = accessTokenProvider;
+        this.limiter = limiter;
+        this.executor = createExecutor(limiter.getMaxLimit());
+    }
+
+    /**
+     * Returns the current limit of concurrent validations.
+     *
+     * @return Maximum number of validations in flight
+     */
+    public int getMaxInFlight() {
+        return limiter.getLimit();
+    }
+
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Returns the number of validations currently in flight.
+     *
+     * @return Number of running validations
+     */
+    public int getInFlight() {
+        return limiter.getInFlight();
+    }
+
+    /**
+     * Starts the validation of the specified signature and optional the signed document. If
+     * the maximum number of validations is already in flight the call blocks until one of
+     * them has finished.
+     *
+     * @param configuration Validation configuration
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output File for the validation report
+     * @return Future completed with the path of the validation report
+     * @throws InterruptedException If the thread was interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Path> validateAsync(final ValidationServiceConfiguration configuration,
+                                                 Path signature, Path document, Path output)
+            throws InterruptedException {
+        return validateAsync(configuration != null ? PreparedConfiguration.of(configuration) : null, signature,
+                document, output);
+    }
+
+    /**
+     * Starts the validation of the specified signature and optional the signed document using
+     * a configuration which is already serialized. If the maximum number of validations is
+     * already in flight the call blocks until one of them has finished.
+     *
+     * @param configuration Prepared validation configuration
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output File for the validation report
+     * @return Future completed with the path of the validation report
+     * @throws InterruptedException If the thread was interrupted while waiting for a free slot
+     */
+    public CompletableFuture<Path> validateAsync(final PreparedConfiguration configuration,
+                                                 Path signature, Path document, Path output)
+            throws InterruptedException {
+        limiter.acquire();
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                final long start = System.nanoTime();
+                ConcurrencyLimiter.Outcome outcome = ConcurrencyLimiter.Outcome.IGNORED;
+
+                try {
+                    Path report = validationServiceClient.validate(accessTokenProvider, configuration, signature,
+                            document, output);
+                    outcome = ConcurrencyLimiter.Outcome.SUCCESS;
+                    return report;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(ex);
+                } catch (Exception ex) {
+                    outcome = classify(ex);
+                    throw new CompletionException(ex);
+                } finally {
+                    limiter.release(System.nanoTime() - start, outcome);
+                }
+            }, executor);
+        } catch (RejectedExecutionException ex) {
+            limiter.release(0, ConcurrencyLimiter.Outcome.IGNORED);
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops accepting validations and waits up to the default timeout for the validations in
+     * flight to finish.
+     */
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Stops accepting validations and waits up to the specified timeout for the validations in
+     * flight to finish. Validations still running afterwards are interrupted.
+     *
+     * @param timeout Maximum time to wait for the validations in flight
+     */
+    public void close(final Duration timeout) {
+        if (timeout == null || timeout.isNegative()) {
+            throw new IllegalArgumentException("timeout may not be null or negative");
+        }
+
+        executor.shutdown();
+        final long deadline = System.nanoTime() + timeout.toNanos();
+
+        try {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0
+                    && !executor.awaitTermination(Math.min(remaining, PROGRESS_INTERVAL.toNanos()),
+                    TimeUnit.NANOSECONDS)) {
+                LOGGER.info("Waiting for {} validations to finish", getInFlight());
+            }
+
+            if (!executor.isTerminated()) {
+                LOGGER.warn("Cancelling {} validations still in flight after {} s", getInFlight(),
+                        timeout.toSeconds());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decides if a failed validation indicates an overloaded validation service.
+     *
+     * @param ex Cause of the failure
+     * @return Outcome for the limiter
+     */
+    private static ConcurrencyLimiter.Outcome classify(final Exception ex) {
+        if (ex instanceof HttpStatusException statusException) {
+            int statusCode = statusException.getStatusCode();
+            return statusCode == 429 || statusCode == 503
+                    ? ConcurrencyLimiter.Outcome.DROPPED
+                    : ConcurrencyLimiter.Outcome.IGNORED;
+        }
+
+        return ex instanceof HttpTimeoutException || ex instanceof CircuitOpenException
+                ? ConcurrencyLimiter.Outcome.DROPPED
+                : ConcurrencyLimiter.Outcome.IGNORED;
+    }
+
+    private static ConcurrencyLimiter createLimiter(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight may not be lower than 1");
+        }
+
+        return new ConcurrencyLimiter(maxInFlight);
+    }
+
+    /**
+     * Creates an executor using virtual threads if the runtime supports them, otherwise a fixed
+     * thread pool. Reflection is used because the project is compiled for Java 17.
+     *
+     * @param threads Number of platform threads if virtual threads are not available
+     * @return Executor instance
+     */
+    private static ExecutorService createExecutor(int threads) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            LOGGER.debug("Using virtual threads for validations");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.debug("Virtual threads not available, using {} platform threads for validations", threads);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "validation-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
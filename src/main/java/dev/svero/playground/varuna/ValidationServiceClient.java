@@ -1,21 +1,47 @@
 package dev.svero.playground.varuna;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
+import dev.svero.playground.varuna.balancer.Endpoint;
+import dev.svero.playground.varuna.balancer.HedgingPolicy;
+import dev.svero.playground.varuna.balancer.LoadBalancer;
+import dev.svero.playground.varuna.cache.ReportCache;
+import dev.svero.playground.varuna.exceptions.CircuitOpenException;
+import dev.svero.playground.varuna.exceptions.HttpStatusException;
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.models.ValidationResult;
 import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.report.ValidationReportParser;
 import dev.svero.playground.varuna.utils.HttpUtils;
+import dev.svero.playground.varuna.utils.RequestCancellation;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Implements methods for accessing the DATA Varuna Validation Services.
+ * Implements methods for accessing the DATA Varuna Validation Services. The requests are
+ * distributed across the nodes of the service by a {@link LoadBalancer}.
  *
  * @author Sven Roeseler
  */
@@ -23,28 +49,98 @@ public class ValidationServiceClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(ValidationServiceClient.class);
 
     private final HttpUtils httpClient;
-    private final String baseUrl;
+    private final LoadBalancer loadBalancer;
     private final String endPoint;
+    private final ValidationReportParser reportParser = new ValidationReportParser();
+    private ReportCache reportCache;
+    private volatile HedgingPolicy hedgingPolicy;
+    private ExecutorService hedgeExecutor;
 
     /**
-     * Creates a new instance.
+     * Creates a new instance for a single node.
      *
      * @param httpUtils HTTP utils instance.
      */
     public ValidationServiceClient(HttpUtils httpUtils, final String baseUrl, final String endPoint) {
+        this(httpUtils, createLoadBalancer(httpUtils, baseUrl), endPoint);
+    }
+
+    /**
+     * Creates a new instance distributing the requests across several nodes.
+     *
+     * @param httpUtils HTTP utils instance
+     * @param loadBalancer Load balancer with the nodes of the service
+     * @param endPoint Path of the validation end point appended to the base URL of the nodes
+     */
+    public ValidationServiceClient(HttpUtils httpUtils, final LoadBalancer loadBalancer, final String endPoint) {
         if (httpUtils == null) {
             throw new IllegalArgumentException("httpUtils may not be null");
         }
 
-        if (StringUtils.isAnyBlank(baseUrl, endPoint)) {
-            throw new IllegalArgumentException("Neither baseUrl nor endPoint may be blank");
+        if (loadBalancer == null) {
+            throw new IllegalArgumentException("loadBalancer may not be null");
+        }
+
+        if (StringUtils.isBlank(endPoint)) {
+            throw new IllegalArgumentException("endPoint may not be blank");
         }
 
         this.httpClient = httpUtils;
-        this.baseUrl = baseUrl;
+        this.loadBalancer = loadBalancer;
         this.endPoint = endPoint;
     }
 
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Enables hedged requests: a validation which takes longer than the delay of the policy is
+     * sent to a second node as well and the first response is used. The requests run on
+     * separate daemon threads while the caller waits for the result; a validation uses at most
+     * two of them, so the pool is limited to twice the number of concurrent validations.
+     *
+     * @param hedgingPolicy Hedging policy or null to disable hedging
+     * @param maxConcurrentRequests Maximum number of validations sent at the same time
+     */
+    public synchronized void setHedgingPolicy(HedgingPolicy hedgingPolicy, int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests may not be lower than 1");
+        }
+
+        if (hedgingPolicy != null && hedgeExecutor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(2 * maxConcurrentRequests,
+                    2 * maxConcurrentRequests, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "validation-hedge-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            hedgeExecutor = executor;
+        }
+
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public ReportCache getReportCache() {
+        return reportCache;
+    }
+
+    /**
+     * Sets the cache for validation reports. Validations writing the report into a file return
+     * the cached report if the same input was validated before with the same configuration.
+     *
+     * @param reportCache Report cache or null to disable caching
+     */
+    public void setReportCache(ReportCache reportCache) {
+        this.reportCache = reportCache;
+    }
+
     /**
      * Validates the specified signature and optional the signed document.
      *
@@ -55,6 +151,424 @@ public class ValidationServiceClient {
      */
     public byte[] validate(final String authorizationToken, final ValidationServiceConfiguration configuration,
                          Path signature, Path document) throws IOException, InterruptedException {
+        return validate(authorizationToken, prepare(configuration), signature, document);
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document using a configuration
+     * which is already serialized.
+     *
+     * @param authorizationToken Authorization token (from KeyCloak)
+     * @param configuration Prepared validation configuration
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     */
+    public byte[] validate(final String authorizationToken, final PreparedConfiguration configuration,
+                           Path signature, Path document) throws IOException, InterruptedException {
+        return send(url -> httpClient.postMultipartRequest(url, createRequestData(configuration, signature, document),
+                createHeaders(authorizationToken)));
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document and streams the
+     * validation report into the specified file.
+     *
+     * @param authorizationToken Authorization token (from KeyCloak)
+     * @param configuration Validation configuration
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output File for the validation report
+     * @return Path of the written validation report
+     */
+    public Path validate(final String authorizationToken, final ValidationServiceConfiguration configuration,
+                         Path signature, Path document, Path output) throws IOException, InterruptedException {
+        return validate(authorizationToken, prepare(configuration), signature, document, output);
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document using a configuration
+     * which is already serialized and streams the validation report into the specified file.
+     *
+     * @param authorizationToken Authorization token (from KeyCloak)
+     * @param configuration Prepared validation configuration
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output File for the validation report
+     * @return Path of the written validation report
+     */
+    public Path validate(final String authorizationToken, final PreparedConfiguration configuration,
+                         Path signature, Path document, Path output) throws IOException, InterruptedException {
+        if (output == null) {
+            throw new IllegalArgumentException("output may not be null");
+        }
+
+        final ReportCache cache = this.reportCache;
+        if (cache == null) {
+            return send(url -> httpClient.postMultipartRequest(url, createRequestData(configuration, signature,
+                    document), createHeaders(authorizationToken), output));
+        }
+
+        final String key = ReportCache.createKey(configuration, signature, document);
+        if (cache.get(key, output)) {
+            LOGGER.debug("Validation report for {} taken from cache", signature);
+            return output;
+        }
+
+        Path report = send(url -> httpClient.postMultipartRequest(url, createRequestData(configuration, signature,
+                document), createHeaders(authorizationToken), output));
+
+        try {
+            cache.put(key, report);
+        } catch (IOException ex) {
+            LOGGER.warn("Could not store the validation report for {} in the cache", signature, ex);
+        }
+
+        return report;
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document using a configuration
+     * which is already serialized and streams the validation report into the specified file.
+     * If the service rejects the access token, a new token is requested and the validation is
+     * sent once more.
+     *
+     * @param accessTokenProvider Provider for the access tokens (from KeyCloak)
+     * @param configuration Prepared validation configuration
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output File for the validation report
+     * @return Path of the written validation report
+     */
+    public Path validate(final AccessTokenProvider accessTokenProvider, final PreparedConfiguration configuration,
+                         Path signature, Path document, Path output) throws IOException, InterruptedException {
+        return sendAuthorized(accessTokenProvider,
+                token -> validate(token, configuration, signature, document, output));
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document and extracts the
+     * result from the validation report while it is received. If the service rejects the
+     * access token, a new token is requested and the validation is sent once more.
+     *
+     * @param accessTokenProvider Provider for the access tokens (from KeyCloak)
+     * @param configuration Validation configuration (should request the SVR report)
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output Optional file for the validation report
+     * @return Result of the validation
+     */
+    public ValidationResult validateWithResult(final AccessTokenProvider accessTokenProvider,
+                                               final ValidationServiceConfiguration configuration,
+                                               Path signature, Path document, Path output)
+            throws IOException, InterruptedException {
+        final PreparedConfiguration preparedConfiguration = prepare(configuration);
+
+        return sendAuthorized(accessTokenProvider,
+                token -> validateWithResult(token, preparedConfiguration, signature, document, output));
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document and extracts the
+     * result from the validation report while it is received. If an output file is specified
+     * the report is written to it at the same time.
+     *
+     * @param authorizationToken Authorization token (from KeyCloak)
+     * @param configuration Validation configuration (should request the SVR report)
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output Optional file for the validation report
+     * @return Result of the validation
+     */
+    public ValidationResult validateWithResult(final String authorizationToken,
+                                               final ValidationServiceConfiguration configuration,
+                                               Path signature, Path document, Path output)
+            throws IOException, InterruptedException {
+        return validateWithResult(authorizationToken, prepare(configuration), signature, document, output);
+    }
+
+    /**
+     * Validates the specified signature and optional the signed document using a configuration
+     * which is already serialized and extracts the result from the validation report while it
+     * is received.
+     *
+     * @param authorizationToken Authorization token (from KeyCloak)
+     * @param configuration Prepared validation configuration (should request the SVR report)
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @param output Optional file for the validation report
+     * @return Result of the validation
+     */
+    public ValidationResult validateWithResult(final String authorizationToken,
+                                               final PreparedConfiguration configuration,
+                                               Path signature, Path document, Path output)
+            throws IOException, InterruptedException {
+        final ReportCache cache = output != null ? this.reportCache : null;
+        final String key = cache != null ? ReportCache.createKey(configuration, signature, document) : null;
+
+        if (cache != null && cache.get(key, output)) {
+            LOGGER.debug("Validation report for {} taken from cache", signature);
+            return reportParser.parse(output);
+        }
+
+        ValidationResult result = send(url -> receiveResult(url, authorizationToken, configuration, signature,
+                document, output));
+
+        if (cache != null) {
+            try {
+                cache.put(key, output);
+            } catch (IOException ex) {
+                LOGGER.warn("Could not store the validation report for {} in the cache", signature, ex);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends the validation request to the specified URL and parses the report while it is
+     * received, copying it into the output file if one is specified.
+     */
+    private ValidationResult receiveResult(final String url, final String authorizationToken,
+                                           final PreparedConfiguration configuration, Path signature,
+                                           Path document, Path output) throws IOException, InterruptedException {
+        InputStream inputStream = httpClient.postMultipartRequest(url,
+                createRequestData(configuration, signature, document), createHeaders(authorizationToken),
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        if (output == null) {
+            try (inputStream) {
+                return reportParser.parse(inputStream, null);
+            }
+        }
+
+        Path temporaryFile = Files.createTempFile(output.toAbsolutePath().getParent(), "." + output.getFileName(),
+                ".part");
+
+        try {
+            ValidationResult result;
+
+            try (inputStream; OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                result = reportParser.parse(inputStream, outputStream);
+            }
+
+            try {
+                Files.move(temporaryFile, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temporaryFile, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            return result;
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Sends a request with the current access token. If the service answers 401 the token is
+     * invalidated and the request is sent once more with a new token.
+     */
+    private <T> T sendAuthorized(final AccessTokenProvider accessTokenProvider, final AuthorizedRequest<T> request)
+            throws IOException, InterruptedException {
+        if (accessTokenProvider == null) {
+            throw new IllegalArgumentException("accessTokenProvider may not be null");
+        }
+
+        String token = accessTokenProvider.getAccessToken();
+
+        try {
+            return request.send(token);
+        } catch (HttpStatusException ex) {
+            if (ex.getStatusCode() != 401) {
+                throw ex;
+            }
+
+            accessTokenProvider.invalidate(token);
+        }
+
+        return request.send(accessTokenProvider.getAccessToken());
+    }
+
+    /**
+     * Sends a request to the node selected by the load balancer. With a hedging policy the
+     * request is sent to a second node if the first one does not answer in time.
+     *
+     * @param request Request to send, receives the URL of the end point on the node
+     * @param <T> Type of the result
+     * @return Result of the request
+     */
+    private <T> T send(final Request<T> request) throws IOException, InterruptedException {
+        final HedgingPolicy policy = this.hedgingPolicy;
+
+        if (policy == null) {
+            return sendTo(loadBalancer.acquire(), request, null);
+        }
+
+        policy.onRequest();
+
+        long delayNanos = policy.getDelayNanos();
+        if (delayNanos < 0) {
+            return sendTo(loadBalancer.acquire(), request, policy);
+        }
+
+        return sendHedged(request, policy, delayNanos);
+    }
+
+    /**
+     * Sends the request and, if it has not finished after the delay and the budget allows it,
+     * a second one to another node. The first successful response is returned and the other
+     * request is cancelled.
+     */
+    private <T> T sendHedged(final Request<T> request, final HedgingPolicy policy, long delayNanos)
+            throws IOException, InterruptedException {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        // Attempts still running; the result fails when the last one failed
+        final AtomicInteger pending = new AtomicInteger(1);
+        // The nodes are selected when the attempts start, so a cancelled attempt which never ran
+        // does not count as in flight
+        final AtomicReference<Endpoint> endpoint = new AtomicReference<>();
+        // The losing attempt is cancelled by aborting its exchange, not by interrupting its thread
+        final RequestCancellation primaryCancellation = new RequestCancellation();
+        final RequestCancellation hedgeCancellation = new RequestCancellation();
+
+        Future<?> primary = hedgeExecutor.submit(() -> attempt(null, endpoint, request, policy, result, pending,
+                primaryCancellation));
+        Future<?> hedge = null;
+
+        try {
+            try {
+                return result.get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                // Not answered in time
+            }
+
+            // Only hedge while the first request is running; if it failed in the meantime the
+            // result is already completed with its exception
+            if (!result.isDone() && policy.tryHedge()
+                    && pending.getAndUpdate(count -> count > 0 ? count + 1 : count) > 0) {
+                LOGGER.debug("No response from {} after {} ms, hedging", endpoint.get(), delayNanos / 1_000_000);
+
+                hedge = hedgeExecutor.submit(() -> attempt(endpoint.get(), null, request, policy, result, pending,
+                        hedgeCancellation));
+            }
+
+            return result.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw new IOException("Validation request failed", ex.getCause());
+        } finally {
+            primary.cancel(false);
+            primaryCancellation.cancel();
+
+            if (hedge != null) {
+                hedge.cancel(false);
+                hedgeCancellation.cancel();
+            }
+        }
+    }
+
+    /**
+     * Runs one attempt of a hedged request.
+     *
+     * @param excluded Node to avoid (the node of the first attempt) or null
+     * @param selected Receives the selected node or null
+     * @param cancellation Cancels the request when the other attempt finished first
+     */
+    private <T> void attempt(final Endpoint excluded, final AtomicReference<Endpoint> selected,
+                             final Request<T> request, final HedgingPolicy policy, final CompletableFuture<T> result,
+                             final AtomicInteger pending, final RequestCancellation cancellation) {
+        try {
+            if (cancellation.isCancelled()) {
+                throw new CancellationException("Request cancelled");
+            }
+
+            Endpoint endpoint = loadBalancer.acquire(excluded);
+            if (selected != null) {
+                selected.set(endpoint);
+            }
+
+            T value = cancellation.run(() -> sendTo(endpoint, request, policy));
+
+            if (result.complete(value) && selected == null) {
+                policy.onHedgeWon();
+            }
+        } catch (Exception ex) {
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Sends a request to the specified node and reports the outcome to the load balancer.
+     */
+    private <T> T sendTo(final Endpoint endpoint, final Request<T> request, final HedgingPolicy policy)
+            throws IOException, InterruptedException {
+        LoadBalancer.Outcome outcome = LoadBalancer.Outcome.IGNORED;
+        final long start = System.nanoTime();
+
+        try {
+            T result = request.send(endpoint.getBaseUrl() + endPoint);
+            outcome = LoadBalancer.Outcome.SUCCESS;
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            // A cancelled hedge says nothing about the node
+            outcome = ex instanceof CancellationException ? LoadBalancer.Outcome.IGNORED : classify(ex);
+            throw ex;
+        } finally {
+            long latency = System.nanoTime() - start;
+            loadBalancer.release(endpoint, latency, outcome);
+
+            if (policy != null && outcome == LoadBalancer.Outcome.SUCCESS) {
+                policy.record(latency);
+            }
+        }
+    }
+
+    private static LoadBalancer.Outcome classify(final Exception ex) {
+        if (ex instanceof HttpStatusException statusException) {
+            int statusCode = statusException.getStatusCode();
+            return statusCode >= 500 || statusCode == 429 ? LoadBalancer.Outcome.FAILURE : LoadBalancer.Outcome.IGNORED;
+        }
+
+        return ex instanceof IOException || ex instanceof CircuitOpenException
+                ? LoadBalancer.Outcome.FAILURE
+                : LoadBalancer.Outcome.IGNORED;
+    }
+
+    private static LoadBalancer createLoadBalancer(final HttpUtils httpUtils, final String baseUrl) {
+        if (httpUtils == null) {
+            throw new IllegalArgumentException("httpUtils may not be null");
+        }
+
+        if (StringUtils.isBlank(baseUrl)) {
+            throw new IllegalArgumentException("baseUrl may not be blank");
+        }
+
+        return new LoadBalancer(List.of(new Endpoint(baseUrl, 1)), httpUtils.getMetricsRegistry());
+    }
+
+    private static PreparedConfiguration prepare(final ValidationServiceConfiguration configuration) {
+        return configuration != null ? PreparedConfiguration.of(configuration) : null;
+    }
+
+    static Map<Object, Object> createRequestData(final ValidationServiceConfiguration configuration,
+                                                 Path signature, Path document) {
+        return createRequestData(prepare(configuration), signature, document);
+    }
+
+    static Map<Object, Object> createRequestData(final PreparedConfiguration configuration,
+                                                 Path signature, Path document) {
         if (signature == null) {
             throw new IllegalArgumentException("signature may not be null");
         }
@@ -68,19 +582,34 @@ public class ValidationServiceClient {
         }
 
         if (configuration != null) {
-            Gson gsonBuilder = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss").create();
-            JsonObject jsonObject = gsonBuilder.toJsonTree(configuration).getAsJsonObject();
-
-            LOGGER.debug("Configuration: {}", jsonObject.toString());
+            LOGGER.debug("Configuration: {}", configuration);
 
-            data.put("jsonConfig", jsonObject);
+            data.put("jsonConfig", configuration);
         }
 
+        return data;
+    }
+
+    private Map<String, String> createHeaders(final String authorizationToken) {
         Map<String, String> additionalHeaders = new HashMap<>();
         additionalHeaders.put("Authorization", "Bearer " + authorizationToken);
 
-        final String url = this.baseUrl + this.endPoint;
+        return additionalHeaders;
+    }
 
-        return httpClient.postMultipartRequest(url, data, additionalHeaders);
+    /**
+     * Request sent to a node of the validation service.
+     */
+    @FunctionalInterface
+    private interface Request<T> {
+        T send(String url) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Request sent with an access token.
+     */
+    @FunctionalInterface
+    private interface AuthorizedRequest<T> {
+        T send(String authorizationToken) throws IOException, InterruptedException;
     }
 }
@@ -0,0 +1,177 @@
+package dev.svero.playground.varuna.balancer;
+
+import dev.svero.playground.varuna.exceptions.ConfigurationException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node of the validation service with its weight and the state used by the
+ * {@link LoadBalancer}. The requests in flight are counted lock-free; the latency average
+ * and the ejection state are maintained by the load balancer.
+ *
+ * @author Sven Roeseler
+ */
+public class Endpoint {
+    private static final String WEIGHT_PARAMETER = ";weight=";
+
+    private final String baseUrl;
+    private final int weight;
+    private final String name;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Guarded by the load balancer
+    double averageLatency;
+    int samples;
+    int consecutiveFailures;
+    int consecutiveEjections;
+    int successesSinceEjection;
+    long ejectionCount;
+
+    private volatile long ejectedUntil;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param baseUrl Base URL of the node (without trailing slash)
+     * @param weight Relative share of the requests, at least 1
+     */
+    public Endpoint(final String baseUrl, int weight) {
+        if (StringUtils.isBlank(baseUrl)) {
+            throw new IllegalArgumentException("baseUrl may not be blank");
+        }
+
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight may not be lower than 1");
+        }
+
+        this.baseUrl = baseUrl;
+        this.weight = weight;
+        this.name = createName(baseUrl);
+    }
+
+    /**
+     * Parses a comma-separated list of base URLs. Every URL may be followed by a weight, e.g.
+     * {@code https://node1:8443/rest;weight=2, https://node2:8443/rest}. URLs without weight
+     * have the weight 1.
+     *
+     * @param value List of base URLs
+     * @return Endpoints in the order of the list
+     */
+    public static List<Endpoint> parseList(final String value) {
+        if (StringUtils.isBlank(value)) {
+            throw new IllegalArgumentException("value may not be blank");
+        }
+
+        List<Endpoint> endpoints = new ArrayList<>();
+
+        for (String entry : value.split(",")) {
+            String url = entry.trim();
+            int weight = 1;
+
+            int index = url.indexOf(WEIGHT_PARAMETER);
+            if (index != -1) {
+                try {
+                    weight = Integer.parseInt(url.substring(index + WEIGHT_PARAMETER.length()).trim());
+                } catch (NumberFormatException ex) {
+                    throw new ConfigurationException("Invalid weight in " + url);
+                }
+
+                url = url.substring(0, index).trim();
+            }
+
+            if (url.isEmpty()) {
+                continue;
+            }
+
+            endpoints.add(new Endpoint(StringUtils.removeEnd(url, "/"), weight));
+        }
+
+        if (endpoints.isEmpty()) {
+            throw new ConfigurationException("No base URL found in " + value);
+        }
+
+        return endpoints;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the name of the node used for the metrics.
+     *
+     * @return Host and port
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns whether the node may receive requests.
+     *
+     * @param now Current time as returned by {@link System#nanoTime()}
+     * @return False while the node is ejected
+     */
+    public boolean isAvailable(long now) {
+        long until = ejectedUntil;
+        return until == 0 || until - now <= 0;
+    }
+
+    public boolean isEjected() {
+        return !isAvailable(System.nanoTime());
+    }
+
+    int incrementInFlight() {
+        return inFlight.incrementAndGet();
+    }
+
+    int decrementInFlight() {
+        return inFlight.decrementAndGet();
+    }
+
+    /**
+     * Ejects the node until the specified time, 0 makes it available again.
+     */
+    void setEjectedUntil(long ejectedUntil) {
+        this.ejectedUntil = ejectedUntil;
+    }
+
+    /**
+     * Returns the load relative to the weight.
+     */
+    double getLoad() {
+        return (inFlight.get() + 1.0) / weight;
+    }
+
+    private static String createName(final String baseUrl) {
+        URI uri = URI.create(baseUrl);
+
+        if (uri.getHost() == null) {
+            return baseUrl;
+        }
+
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+
+        return uri.getHost() + ":" + port;
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
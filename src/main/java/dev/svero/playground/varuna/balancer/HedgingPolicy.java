@@ -0,0 +1,139 @@
+package dev.svero.playground.varuna.balancer;
+
+import dev.svero.playground.varuna.metrics.LatencyHistogram;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a request is hedged, i.e. sent a second time to another node because the
+ * first node has not answered yet. A request is hedged when it takes longer than the
+ * configured percentile of the recent latencies (but at least the minimum delay), so only
+ * the slowest requests are duplicated.
+ *
+ * <p>The extra load is limited by a budget: every request adds the configured share of a
+ * hedge to the budget, every hedge takes one. With 5 % at most one request in twenty is
+ * hedged on average, plus a small burst allowance.</p>
+ *
+ * <p>The latencies are collected in windows of {@link #WINDOW_SIZE} requests; the delay is
+ * taken from the last complete window, so it follows changes of the service.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class HedgingPolicy {
+    private static final int WINDOW_SIZE = 1000;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_BALANCE = 10.0;
+
+    private final double percentile;
+    private final double budgetRatio;
+    private final long minDelayNanos;
+    private final LongAdder hedgesSent;
+    private final LongAdder hedgesWon;
+
+    private LatencyHistogram window = new LatencyHistogram();
+    private LatencyHistogram previousWindow;
+    private double balance;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param percentile Percentile of the recent latencies after which a request is hedged
+     * @param budgetPercent Maximum number of hedges in percent of the requests
+     * @param minDelay Minimum time before a request is hedged
+     * @param metricsRegistry Registry for the hedging metrics
+     */
+    public HedgingPolicy(double percentile, int budgetPercent, final Duration minDelay,
+                         final MetricsRegistry metricsRegistry) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+
+        if (budgetPercent < 1 || budgetPercent > 100) {
+            throw new IllegalArgumentException("budgetPercent must be between 1 and 100");
+        }
+
+        if (minDelay == null || minDelay.isNegative()) {
+            throw new IllegalArgumentException("minDelay may not be null or negative");
+        }
+
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("metricsRegistry may not be null");
+        }
+
+        this.percentile = percentile;
+        this.budgetRatio = budgetPercent / 100.0;
+        this.minDelayNanos = minDelay.toNanos();
+        this.hedgesSent = metricsRegistry.counter("validationService.hedges.sent");
+        this.hedgesWon = metricsRegistry.counter("validationService.hedges.won");
+
+        metricsRegistry.gauge("validationService.hedges.delay", () -> getDelayNanos() / 1_000_000);
+    }
+
+    /**
+     * Returns the time after which a request is hedged.
+     *
+     * @return Delay in nanoseconds or -1 if not enough latencies were recorded yet
+     */
+    public synchronized long getDelayNanos() {
+        LatencyHistogram histogram = previousWindow != null ? previousWindow : window;
+
+        if (histogram.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+
+        return Math.max(minDelayNanos, histogram.getPercentile(percentile));
+    }
+
+    /**
+     * Records the latency of a successful request.
+     *
+     * @param latencyNanos Latency in nanoseconds
+     */
+    public synchronized void record(long latencyNanos) {
+        window.record(latencyNanos);
+
+        if (window.getCount() >= WINDOW_SIZE) {
+            previousWindow = window;
+            window = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Adds the share of a request to the budget. Called once for every request.
+     */
+    public synchronized void onRequest() {
+        balance = Math.min(MAX_BALANCE, balance + budgetRatio);
+    }
+
+    /**
+     * Takes a hedge from the budget.
+     *
+     * @return True if the request may be hedged
+     */
+    public synchronized boolean tryHedge() {
+        if (balance < 1.0) {
+            return false;
+        }
+
+        balance -= 1.0;
+        hedgesSent.increment();
+        return true;
+    }
+
+    /**
+     * Counts a hedge which answered before the original request.
+     */
+    public void onHedgeWon() {
+        hedgesWon.increment();
+    }
+
+    public long getHedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+}
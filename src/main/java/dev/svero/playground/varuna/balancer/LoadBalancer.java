@@ -0,0 +1,388 @@
+package dev.svero.playground.varuna.balancer;
+
+import dev.svero.playground.varuna.metrics.LatencyHistogram;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import dev.svero.playground.varuna.utils.HttpUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distributes the validation requests across several nodes of the validation service. For
+ * every request two available nodes are picked at random according to their weights and the
+ * one with fewer requests in flight relative to its weight is used (power of two choices).
+ *
+ * <p>Nodes are ejected for a while if several requests in a row failed, if their average
+ * latency is far above the average of the other nodes, or if a health check failed. The
+ * ejection time grows with every ejection in a row. Never more than the configured share of
+ * the nodes is ejected at the same time, so a general overload does not take all nodes out.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class LoadBalancer implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancer.class);
+
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_SAMPLES = 10;
+    private static final int MAX_EJECTION_MULTIPLIER = 8;
+
+    /**
+     * Outcome of a request with respect to the health of the node.
+     */
+    public enum Outcome {
+        /**
+         * The node answered the request, its latency is a valid sample.
+         */
+        SUCCESS,
+        /**
+         * The node could not be reached, timed out or answered with a server error.
+         */
+        FAILURE,
+        /**
+         * The request failed for a reason unrelated to the node (e.g. invalid input).
+         */
+        IGNORED
+    }
+
+    private final List<Endpoint> endpoints;
+    private final Map<Endpoint, LatencyHistogram> latencies = new HashMap<>();
+    private final int failureThreshold;
+    private final double slowFactor;
+    private final Duration ejectionTime;
+    private final int maxEjectionPercent;
+
+    private ScheduledExecutorService healthChecker;
+
+    /**
+     * Creates a new instance with the default ejection settings: 5 failures in a row, three
+     * times the average latency of the other nodes, 30 seconds and at most half of the nodes.
+     *
+     * @param endpoints Nodes of the validation service
+     * @param metricsRegistry Registry for the metrics of the nodes
+     */
+    public LoadBalancer(final List<Endpoint> endpoints, final MetricsRegistry metricsRegistry) {
+        this(endpoints, metricsRegistry, 5, 3.0, Duration.ofSeconds(30), 50);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param endpoints Nodes of the validation service
+     * @param metricsRegistry Registry for the metrics of the nodes
+     * @param failureThreshold Number of failed requests in a row after which a node is ejected
+     * @param slowFactor Factor by which the average latency of a node may exceed the average
+     *                   of the other nodes before it is ejected
+     * @param ejectionTime Time a node is ejected for the first time
+     * @param maxEjectionPercent Maximum share of the nodes ejected at the same time
+     */
+    public LoadBalancer(final List<Endpoint> endpoints, final MetricsRegistry metricsRegistry, int failureThreshold,
+                        double slowFactor, final Duration ejectionTime, int maxEjectionPercent) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("endpoints may not be null or empty");
+        }
+
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("metricsRegistry may not be null");
+        }
+
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold may not be lower than 1");
+        }
+
+        if (slowFactor < 1.0) {
+            throw new IllegalArgumentException("slowFactor may not be lower than 1");
+        }
+
+        if (ejectionTime == null || ejectionTime.isNegative()) {
+            throw new IllegalArgumentException("ejectionTime may not be null or negative");
+        }
+
+        if (maxEjectionPercent < 0 || maxEjectionPercent > 100) {
+            throw new IllegalArgumentException("maxEjectionPercent must be between 0 and 100");
+        }
+
+        this.endpoints = List.copyOf(endpoints);
+        this.failureThreshold = failureThreshold;
+        this.slowFactor = slowFactor;
+        this.ejectionTime = ejectionTime;
+        this.maxEjectionPercent = maxEjectionPercent;
+
+        for (Endpoint endpoint : this.endpoints) {
+            String prefix = "validationService.node." + endpoint.getName();
+            latencies.put(endpoint, metricsRegistry.histogram(prefix + ".latency"));
+            metricsRegistry.gauge(prefix + ".inFlight", endpoint::getInFlight);
+            metricsRegistry.gauge(prefix + ".ejected", () -> endpoint.isEjected() ? 1 : 0);
+            metricsRegistry.gauge(prefix + ".ejections", () -> getEjectionCount(endpoint));
+        }
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Selects the node for a request and counts the request as in flight. Every call has to
+     * be followed by a call of {@link #release(Endpoint, long, Outcome)}.
+     *
+     * @return Selected node
+     */
+    public Endpoint acquire() {
+        return acquire(null);
+    }
+
+    /**
+     * Selects the node for a request, preferring nodes other than the excluded one (e.g. the
+     * node of the original request when a request is hedged). If no other node is available
+     * the excluded node is used as well.
+     *
+     * @param excluded Node to avoid or null
+     * @return Selected node
+     */
+    public Endpoint acquire(final Endpoint excluded) {
+        Endpoint endpoint = select(excluded);
+        if (endpoint == null) {
+            endpoint = select(null);
+        }
+
+        endpoint.incrementInFlight();
+
+        return endpoint;
+    }
+
+    /**
+     * Counts a finished request and updates the health of the node.
+     *
+     * @param endpoint Node returned by {@link #acquire()}
+     * @param latencyNanos Duration of the request in nanoseconds
+     * @param outcome Outcome of the request
+     */
+    public void release(final Endpoint endpoint, long latencyNanos, final Outcome outcome) {
+        endpoint.decrementInFlight();
+
+        if (outcome == Outcome.SUCCESS) {
+            latencies.get(endpoint).record(latencyNanos);
+        }
+
+        if (endpoints.size() == 1) {
+            return;
+        }
+
+        synchronized (this) {
+            switch (outcome) {
+                case SUCCESS -> onSuccess(endpoint, latencyNanos);
+                case FAILURE -> {
+                    if (++endpoint.consecutiveFailures >= failureThreshold) {
+                        eject(endpoint, endpoint.consecutiveFailures + " failed requests");
+                    }
+                }
+                case IGNORED -> {
+                    // No information about the node
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts checking the nodes periodically with a GET request of the specified path. A node
+     * whose health check fails is ejected.
+     *
+     * @param httpUtils HTTP client for the health checks
+     * @param path Path appended to the base URL of the nodes
+     * @param interval Time between two checks of a node
+     * @param timeout Timeout of a health check request
+     */
+    public synchronized void startHealthChecks(final HttpUtils httpUtils, final String path,
+                                               final Duration interval, final Duration timeout) {
+        if (httpUtils == null) {
+            throw new IllegalArgumentException("httpUtils may not be null");
+        }
+
+        if (StringUtils.isBlank(path)) {
+            throw new IllegalArgumentException("path may not be blank");
+        }
+
+        if (interval == null || interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+
+        if (healthChecker != null) {
+            return;
+        }
+
+        healthChecker = Executors.newScheduledThreadPool(Math.min(endpoints.size(), 4), runnable -> {
+            Thread thread = new Thread(runnable, "health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (Endpoint endpoint : endpoints) {
+            String url = endpoint.getBaseUrl() + path;
+            httpUtils.setRequestTimeout(url, timeout);
+
+            healthChecker.scheduleWithFixedDelay(() -> check(httpUtils, endpoint, url), 0, interval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    private void check(final HttpUtils httpUtils, final Endpoint endpoint, final String url) {
+        try {
+            httpUtils.getRequest(url);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.debug("Health check of {} failed", endpoint, ex);
+
+            synchronized (this) {
+                eject(endpoint, "health check failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Selects one of the available nodes except the excluded one.
+     *
+     * @return Selected node or null if only the excluded node is available
+     */
+    private Endpoint select(final Endpoint excluded) {
+        if (endpoints.size() == 1) {
+            return excluded == null ? endpoints.get(0) : null;
+        }
+
+        long now = System.nanoTime();
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        int totalWeight = 0;
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != excluded && endpoint.isAvailable(now)) {
+                available.add(endpoint);
+                totalWeight += endpoint.getWeight();
+            }
+        }
+
+        if (available.isEmpty()) {
+            if (excluded != null) {
+                return null;
+            }
+
+            // Cannot happen unless all nodes are ejected; better try any node than none
+            return pick(endpoints, null, endpoints.stream().mapToInt(Endpoint::getWeight).sum());
+        }
+
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+
+        Endpoint first = pick(available, null, totalWeight);
+        Endpoint second = pick(available, first, totalWeight - first.getWeight());
+
+        return second.getLoad() < first.getLoad() ? second : first;
+    }
+
+    /**
+     * Picks a node at random according to the weights.
+     */
+    private static Endpoint pick(final List<Endpoint> candidates, final Endpoint excluded, int totalWeight) {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+
+        for (Endpoint candidate : candidates) {
+            if (candidate == excluded) {
+                continue;
+            }
+
+            value -= candidate.getWeight();
+            if (value < 0) {
+                return candidate;
+            }
+        }
+
+        throw new IllegalStateException("Total weight does not match the candidates");
+    }
+
+    private void onSuccess(final Endpoint endpoint, long latencyNanos) {
+        endpoint.consecutiveFailures = 0;
+
+        if (++endpoint.successesSinceEjection >= MIN_SAMPLES) {
+            endpoint.consecutiveEjections = 0;
+        }
+
+        if (endpoint.samples++ == 0) {
+            endpoint.averageLatency = latencyNanos;
+        } else {
+            endpoint.averageLatency += SMOOTHING * (latencyNanos - endpoint.averageLatency);
+        }
+
+        if (endpoint.samples < MIN_SAMPLES) {
+            return;
+        }
+
+        // Average latency of the other available nodes with enough samples
+        long now = System.nanoTime();
+        double sum = 0;
+        int count = 0;
+
+        for (Endpoint other : endpoints) {
+            if (other != endpoint && other.samples >= MIN_SAMPLES && other.isAvailable(now)) {
+                sum += other.averageLatency;
+                count++;
+            }
+        }
+
+        if (count > 0 && endpoint.averageLatency > slowFactor * sum / count) {
+            eject(endpoint, String.format("average latency %d ms, other nodes %d ms",
+                    (long) endpoint.averageLatency / 1_000_000, (long) (sum / count) / 1_000_000));
+        }
+    }
+
+    /**
+     * Ejects the node unless it is already ejected or too many nodes are ejected.
+     */
+    private void eject(final Endpoint endpoint, final String reason) {
+        long now = System.nanoTime();
+
+        if (!endpoint.isAvailable(now)) {
+            return;
+        }
+
+        long ejected = endpoints.stream().filter(other -> !other.isAvailable(now)).count();
+        if ((ejected + 1) * 100 > (long) maxEjectionPercent * endpoints.size()) {
+            LOGGER.debug("Not ejecting {} ({}), {} of {} nodes already ejected", endpoint, reason, ejected,
+                    endpoints.size());
+            return;
+        }
+
+        endpoint.consecutiveEjections = Math.min(endpoint.consecutiveEjections + 1, MAX_EJECTION_MULTIPLIER);
+        endpoint.ejectionCount++;
+        endpoint.successesSinceEjection = 0;
+        endpoint.consecutiveFailures = 0;
+        // Learn the latency again after the ejection
+        endpoint.samples = 0;
+
+        Duration duration = ejectionTime.multipliedBy(endpoint.consecutiveEjections);
+        endpoint.setEjectedUntil(now + duration.toNanos());
+
+        LOGGER.warn("Node {} ejected for {} s: {}", endpoint, duration.toSeconds(), reason);
+    }
+
+    private synchronized long getEjectionCount(final Endpoint endpoint) {
+        return endpoint.ejectionCount;
+    }
+}
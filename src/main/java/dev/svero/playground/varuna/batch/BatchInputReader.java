@@ -0,0 +1,219 @@
+package dev.svero.playground.varuna.batch;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Reads the items of a batch run from a directory, a glob pattern or a manifest file.
+ *
+ * <ul>
+ *     <li>Directory: every regular file in the directory is validated as signature.</li>
+ *     <li>Glob pattern (e.g. {@code archive/**.p7s}): every matching file is validated as signature.</li>
+ *     <li>CSV manifest ({@code .csv}): one line per item with {@code signature[,document]}.</li>
+ *     <li>JSONL manifest ({@code .jsonl}): one JSON object per line with the keys
+ *     {@code signature}, {@code document} (optional) and {@code id} (optional).</li>
+ * </ul>
+ *
+ * Relative paths in manifests are resolved against the directory of the manifest. The id of an
+ * item names its validation report, so an id from a manifest may not contain a path. If an id
+ * is used more than once, a counter is appended.
+ *
+ * @author Sven Roeseler
+ */
+public class BatchInputReader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchInputReader.class);
+
+    /**
+     * Reads the batch items from the specified input.
+     *
+     * @param input Directory, glob pattern or manifest file
+     * @return List with the batch items
+     * @throws IOException If the input could not be read
+     */
+    public List<BatchItem> read(final String input) throws IOException {
+        if (StringUtils.isBlank(input)) {
+            throw new IllegalArgumentException("input may not be blank");
+        }
+
+        if (StringUtils.containsAny(input, '*', '?', '[', '{')) {
+            return readGlob(input);
+        }
+
+        Path path = Path.of(input);
+
+        if (Files.isDirectory(path)) {
+            return readDirectory(path);
+        }
+
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("The batch input does not exist: " + input);
+        }
+
+        String filename = path.getFileName().toString().toLowerCase();
+
+        if (filename.endsWith(".csv")) {
+            return readCsvManifest(path);
+        } else if (filename.endsWith(".jsonl")) {
+            return readJsonLinesManifest(path);
+        }
+
+        throw new IllegalArgumentException("Unsupported manifest format: " + input);
+    }
+
+    private List<BatchItem> readDirectory(final Path directory) throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(Files::isRegularFile).sorted().toList();
+        }
+
+        return toItems(files);
+    }
+
+    private List<BatchItem> readGlob(final String pattern) throws IOException {
+        // Walk from the deepest directory which does not contain any glob characters
+        int firstGlobCharacter = StringUtils.indexOfAny(pattern, '*', '?', '[', '{');
+        int separator = pattern.lastIndexOf('/', firstGlobCharacter);
+        Path start = separator < 0 ? Path.of(".") : Path.of(pattern.substring(0, separator + 1));
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.walk(start)) {
+            files = stream
+                    .filter(Files::isRegularFile)
+                    .map(path -> separator < 0 ? start.relativize(path) : path)
+                    .filter(matcher::matches)
+                    .sorted()
+                    .toList();
+        }
+
+        return toItems(files);
+    }
+
+    private List<BatchItem> readCsvManifest(final Path manifest) throws IOException {
+        List<BatchItem> items = new ArrayList<>();
+        Set<String> usedIds = new HashSet<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+
+                if (StringUtils.isBlank(line) || line.startsWith("#")
+                        || (lineNumber == 1 && line.toLowerCase().startsWith("signature"))) {
+                    continue;
+                }
+
+                String[] columns = line.split(",", -1);
+                Path signature = resolve(manifest, columns[0]);
+                Path document = columns.length > 1 && StringUtils.isNotBlank(columns[1])
+                        ? resolve(manifest, columns[1]) : null;
+
+                items.add(new BatchItem(uniqueId(usedIds, signature.getFileName().toString()), signature, document));
+            }
+        }
+
+        LOGGER.debug("Read {} items from manifest {}", items.size(), manifest);
+
+        return items;
+    }
+
+    private List<BatchItem> readJsonLinesManifest(final Path manifest) throws IOException {
+        List<BatchItem> items = new ArrayList<>();
+        Set<String> usedIds = new HashSet<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+
+                JsonObject jsonObject = JsonParser.parseString(line).getAsJsonObject();
+                if (!jsonObject.has("signature")) {
+                    throw new IllegalArgumentException("Manifest entry without signature: " + line);
+                }
+
+                Path signature = resolve(manifest, jsonObject.get("signature").getAsString());
+                Path document = jsonObject.has("document")
+                        ? resolve(manifest, jsonObject.get("document").getAsString()) : null;
+                String id = uniqueId(usedIds, jsonObject.has("id")
+                        ? checkId(jsonObject.get("id").getAsString())
+                        : signature.getFileName().toString());
+
+                items.add(new BatchItem(id, signature, document));
+            }
+        }
+
+        LOGGER.debug("Read {} items from manifest {}", items.size(), manifest);
+
+        return items;
+    }
+
+    private List<BatchItem> toItems(final List<Path> files) {
+        List<BatchItem> items = new ArrayList<>(files.size());
+        Set<String> usedIds = new HashSet<>();
+
+        for (Path file : files) {
+            items.add(new BatchItem(uniqueId(usedIds, file.getFileName().toString()), file, null));
+        }
+
+        return items;
+    }
+
+    private static Path resolve(final Path manifest, final String value) {
+        Path path = Path.of(value.trim());
+        Path directory = manifest.toAbsolutePath().getParent();
+
+        return path.isAbsolute() || directory == null ? path : directory.resolve(path);
+    }
+
+    /**
+     * Checks that an identifier from a manifest can be used as file name in the output directory.
+     */
+    private static String checkId(final String id) {
+        if (StringUtils.isBlank(id) || StringUtils.containsAny(id, '/', '\\', '\0')
+                || ".".equals(id) || "..".equals(id)) {
+            throw new IllegalArgumentException("Invalid item id in manifest: " + id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Uses the name as identifier and appends a counter if the name was already used.
+     */
+    private static String uniqueId(final Set<String> usedIds, final String name) {
+        String id = name;
+
+        for (int count = 2; !usedIds.add(id); count++) {
+            id = name + "_" + count;
+        }
+
+        if (!id.equals(name)) {
+            LOGGER.warn("The item id {} is used more than once, using {} instead", name, id);
+        }
+
+        return id;
+    }
+}
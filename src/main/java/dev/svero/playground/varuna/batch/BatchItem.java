@@ -0,0 +1,55 @@
+package dev.svero.playground.varuna.batch;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.file.Path;
+
+/**
+ * Describes a single validation of a batch run: a signature file, the optional signed
+ * document and the name used for the validation report.
+ *
+ * @author Sven Roeseler
+ */
+public class BatchItem {
+    private final String id;
+    private final Path signature;
+    private final Path document;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param id Identifier of the item, used as base name for the validation report
+     * @param signature File with the signature
+     * @param document Optional file with the signed document
+     */
+    public BatchItem(final String id, final Path signature, final Path document) {
+        if (StringUtils.isBlank(id)) {
+            throw new IllegalArgumentException("id may not be blank");
+        }
+
+        if (signature == null) {
+            throw new IllegalArgumentException("signature may not be null");
+        }
+
+        this.id = id;
+        this.signature = signature;
+        this.document = document;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Path getSignature() {
+        return signature;
+    }
+
+    public Path getDocument() {
+        return document;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -0,0 +1,91 @@
+package dev.svero.playground.varuna.batch;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Holds the outcome of a single validation of a batch run.
+ *
+ * @author Sven Roeseler
+ */
+public class BatchItemResult {
+    /**
+     * Status of a batch item.
+     */
+    public enum Status {
+        SUCCESS,
+        FAILED,
+        SKIPPED
+    }
+
+    private final BatchItem item;
+    private final Status status;
+    private final Duration duration;
+    private final Path output;
+    private final String error;
+
+    private BatchItemResult(BatchItem item, Status status, Duration duration, Path output, String error) {
+        this.item = item;
+        this.status = status;
+        this.duration = duration;
+        this.output = output;
+        this.error = error;
+    }
+
+    /**
+     * Creates a result for a successful validation.
+     *
+     * @param item Validated item
+     * @param duration Time needed for the validation
+     * @param output File with the validation report
+     * @return Result instance
+     */
+    public static BatchItemResult success(final BatchItem item, final Duration duration, final Path output) {
+        return new BatchItemResult(item, Status.SUCCESS, duration, output, null);
+    }
+
+    /**
+     * Creates a result for a failed validation.
+     *
+     * @param item Validated item
+     * @param duration Time until the validation failed
+     * @param error Cause of the failure
+     * @return Result instance
+     */
+    public static BatchItemResult failure(final BatchItem item, final Duration duration, final Throwable error) {
+        String message = error.getMessage() == null ? error.getClass().getName() : error.getMessage();
+        return new BatchItemResult(item, Status.FAILED, duration, null, message);
+    }
+
+    /**
+     * Creates a result for an item which was not validated because a report of an earlier
+     * run exists.
+     *
+     * @param item Skipped item
+     * @param output File with the validation report of the earlier run
+     * @return Result instance
+     */
+    public static BatchItemResult skipped(final BatchItem item, final Path output) {
+        return new BatchItemResult(item, Status.SKIPPED, Duration.ZERO, output, null);
+    }
+
+    public BatchItem getItem() {
+        return item;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,368 @@
+package dev.svero.playground.varuna.batch;
+
+import dev.svero.playground.varuna.ClientContext;
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Validates a list of batch items concurrently using one shared client context and writes
+ * one validation report per item plus a summary file.
+ *
+ * @author Sven Roeseler
+ */
+public class BatchRunner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunner.class);
+
+    /**
+     * Name of the summary file written to the output directory.
+     */
+    public static final String SUMMARY_FILENAME = "summary.csv";
+
+    /**
+     * Name of the file with the client metrics written to the output directory.
+     */
+    public static final String METRICS_FILENAME = "metrics.txt";
+
+    private final ClientContext clientContext;
+    private final PreparedConfiguration serviceConfiguration;
+    private final Path outputDirectory;
+    private JobJournal journal;
+    private SizeAwareScheduler scheduler;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param clientContext Context with the clients for KeyCloak and the validation service
+     * @param serviceConfiguration Configuration used for all validations (serialized once)
+     * @param outputDirectory Directory for the validation reports and the summary
+     */
+    public BatchRunner(ClientContext clientContext, ValidationServiceConfiguration serviceConfiguration,
+                       Path outputDirectory) {
+        if (clientContext == null) {
+            throw new IllegalArgumentException("clientContext may not be null");
+        }
+
+        if (outputDirectory == null) {
+            throw new IllegalArgumentException("outputDirectory may not be null");
+        }
+
+        this.clientContext = clientContext;
+        this.serviceConfiguration = serviceConfiguration != null
+                ? PreparedConfiguration.of(serviceConfiguration) : null;
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Sets the journal recording the results. Items recorded as successful in the journal
+     * are skipped if their report still exists.
+     *
+     * @param journal Job journal or null
+     */
+    public void setJournal(JobJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the scheduler deciding the order and concurrency of the items by their size.
+     * Without scheduler the items are submitted in the given order.
+     *
+     * @param scheduler Size-aware scheduler or null
+     */
+    public void setScheduler(SizeAwareScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Validates all items and writes the summary file.
+     *
+     * @param items Items to validate
+     * @return Results for all items in the order of the items
+     * @throws IOException If the output directory or the summary could not be written
+     */
+    public List<BatchItemResult> run(final List<BatchItem> items) throws IOException {
+        if (items == null) {
+            throw new IllegalArgumentException("items may not be null");
+        }
+
+        Files.createDirectories(outputDirectory);
+
+        List<CompletableFuture<BatchItemResult>> futures = scheduler != null
+                ? submitScheduled(items) : submitInOrder(items);
+
+        List<BatchItemResult> results = new ArrayList<>(futures.size());
+        int failed = 0;
+        int skipped = 0;
+
+        for (CompletableFuture<BatchItemResult> future : futures) {
+            BatchItemResult result = future.join();
+            if (result.getStatus() == BatchItemResult.Status.FAILED) {
+                failed++;
+            } else if (result.getStatus() == BatchItemResult.Status.SKIPPED) {
+                skipped++;
+            }
+
+            results.add(result);
+        }
+
+        if (journal != null) {
+            journal.sync();
+        }
+
+        writeSummary(results);
+
+        String metrics = clientContext.getMetricsRegistry().dump();
+        Files.writeString(outputDirectory.resolve(METRICS_FILENAME), metrics, StandardCharsets.UTF_8);
+
+        LOGGER.info("Batch finished: {} items, {} failed, {} skipped", results.size(), failed, skipped);
+        LOGGER.info("Client metrics:\n{}", metrics);
+
+        return results;
+    }
+
+    private List<CompletableFuture<BatchItemResult>> submitInOrder(final List<BatchItem> items) {
+        List<CompletableFuture<BatchItemResult>> futures = new ArrayList<>(items.size());
+
+        try {
+            for (BatchItem item : items) {
+                futures.add(submit(item));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Batch interrupted after submitting {} of {} items", futures.size(), items.size());
+        }
+
+        return futures;
+    }
+
+    /**
+     * Submits the large items from a separate thread and the small items from the calling
+     * thread, each lane largest first. The futures are returned in the order of the items.
+     * A runtime exception in either lane is thrown after both lanes have finished.
+     */
+    private List<CompletableFuture<BatchItemResult>> submitScheduled(final List<BatchItem> items) {
+        final long[] sizes = items.stream().mapToLong(scheduler::getSize).toArray();
+        final List<Integer> order = scheduler.order(sizes);
+        final List<Integer> large = order.stream().filter(index -> scheduler.isLarge(sizes[index])).toList();
+        final List<Integer> small = order.stream().filter(index -> !scheduler.isLarge(sizes[index])).toList();
+
+        LOGGER.info("Scheduling {} large and {} small items", large.size(), small.size());
+
+        final AtomicReferenceArray<CompletableFuture<BatchItemResult>> slots =
+                new AtomicReferenceArray<>(items.size());
+        final AtomicReference<RuntimeException> largeLaneError = new AtomicReference<>();
+
+        Thread largeLane = new Thread(() -> {
+            try {
+                submitLane(items, sizes, large, slots);
+            } catch (RuntimeException ex) {
+                largeLaneError.set(ex);
+            }
+        }, "batch-large-lane");
+        largeLane.setDaemon(true);
+        largeLane.start();
+
+        try {
+            submitLane(items, sizes, small, slots);
+        } catch (RuntimeException ex) {
+            largeLane.interrupt();
+            awaitLane(largeLane);
+
+            if (largeLaneError.get() != null) {
+                ex.addSuppressed(largeLaneError.get());
+            }
+
+            throw ex;
+        }
+
+        awaitLane(largeLane);
+
+        if (largeLaneError.get() != null) {
+            throw largeLaneError.get();
+        }
+
+        List<CompletableFuture<BatchItemResult>> futures = new ArrayList<>(items.size());
+        for (int index = 0; index < slots.length(); index++) {
+            CompletableFuture<BatchItemResult> future = slots.get(index);
+            if (future != null) {
+                futures.add(future);
+            }
+        }
+
+        if (futures.size() < items.size()) {
+            LOGGER.warn("Batch interrupted after submitting {} of {} items", futures.size(), items.size());
+        }
+
+        return futures;
+    }
+
+    private static void awaitLane(final Thread lane) {
+        try {
+            lane.join();
+        } catch (InterruptedException ex) {
+            lane.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submitLane(final List<BatchItem> items, final long[] sizes, final List<Integer> lane,
+                            final AtomicReferenceArray<CompletableFuture<BatchItemResult>> slots) {
+        for (int index : lane) {
+            final long size = sizes[index];
+
+            try {
+                scheduler.acquire(size);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                slots.set(index, submit(items.get(index)).whenComplete((result, error) -> scheduler.release(size)));
+            } catch (InterruptedException ex) {
+                scheduler.release(size);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                scheduler.release(size);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Submits a single item to the validation engine. Errors are not thrown but recorded in
+     * the result. Blocks while the maximum number of validations is in flight.
+     *
+     * @param item Item to validate
+     * @return Future completed with the result of the validation
+     * @throws InterruptedException If the thread was interrupted while waiting for a free slot
+     */
+    protected CompletableFuture<BatchItemResult> submit(final BatchItem item) throws InterruptedException {
+        if (journal == null) {
+            return validate(item);
+        }
+
+        final String key;
+        try {
+            key = JobJournal.createKey(serviceConfiguration, item);
+        } catch (IOException ex) {
+            LOGGER.warn("Could not read {}", item, ex);
+            return CompletableFuture.completedFuture(BatchItemResult.failure(item, Duration.ZERO, ex));
+        }
+
+        Path completed = journal.getCompletedOutput(key);
+        if (completed != null) {
+            LOGGER.debug("Skipping {}, already validated -> {}", item, completed);
+            return CompletableFuture.completedFuture(BatchItemResult.skipped(item, completed));
+        }
+
+        return validate(item).thenApply(result -> {
+            try {
+                journal.record(key, result);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not record the result of {} in the journal", item, ex);
+            }
+
+            return result;
+        });
+    }
+
+    private CompletableFuture<BatchItemResult> validate(final BatchItem item) throws InterruptedException {
+        final long start = System.nanoTime();
+        final Path output;
+
+        try {
+            output = getOutputFile(item);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warn("Could not validate {}", item, ex);
+            return CompletableFuture.completedFuture(BatchItemResult.failure(item, Duration.ZERO, ex));
+        }
+
+        return clientContext.getValidationEngine()
+                .validateAsync(serviceConfiguration, item.getSignature(), item.getDocument(), output)
+                .handle((path, error) -> {
+                    Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        LOGGER.warn("Could not validate {}", item, cause);
+                        return BatchItemResult.failure(item, duration, cause);
+                    }
+
+                    LOGGER.debug("Validated {} -> {}", item, path);
+                    return BatchItemResult.success(item, duration, path);
+                });
+    }
+
+    /**
+     * Returns the file for the validation report of the specified item.
+     *
+     * @param item Batch item
+     * @return Path of the validation report
+     * @throws IllegalArgumentException If the id of the item does not denote a file in the output directory
+     */
+    protected Path getOutputFile(final BatchItem item) {
+        Path output = outputDirectory.resolve(item.getId() + ".zip");
+        Path directory = outputDirectory.toAbsolutePath().normalize();
+
+        if (!directory.equals(output.toAbsolutePath().normalize().getParent())) {
+            throw new IllegalArgumentException("The item id may not contain a path: " + item.getId());
+        }
+
+        return output;
+    }
+
+    private void writeSummary(final List<BatchItemResult> results) throws IOException {
+        Path summary = outputDirectory.resolve(SUMMARY_FILENAME);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(summary, StandardCharsets.UTF_8)) {
+            writer.write("id,signature,document,status,durationMillis,output,error");
+            writer.newLine();
+
+            for (BatchItemResult result : results) {
+                BatchItem item = result.getItem();
+
+                writer.write(String.join(",",
+                        csv(item.getId()),
+                        csv(item.getSignature()),
+                        csv(item.getDocument()),
+                        result.getStatus().name(),
+                        String.valueOf(result.getDuration().toMillis()),
+                        csv(result.getOutput()),
+                        csv(result.getError())));
+                writer.newLine();
+            }
+        }
+
+        LOGGER.debug("Summary written to {}", summary);
+    }
+
+    private static String csv(final Object value) {
+        if (value == null) {
+            return "";
+        }
+
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+
+        return text;
+    }
+}
@@ -0,0 +1,292 @@
+package dev.svero.playground.varuna.batch;
+
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.utils.HashUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the items processed by a batch run. Every finished validation is
+ * recorded as one line with the hash of the input files and the configuration, the status,
+ * the number of attempts and the report file. A run reading an existing journal can skip the items that were
+ * already validated successfully and retry only the failed ones.
+ *
+ * <p>Records are written to the file immediately but only forced to disk (fsync) in batches:
+ * after the configured number of records or when the sync interval has elapsed, whichever
+ * comes first. After a crash at most the records of the last batch are lost, which only
+ * means these items are validated again. A line truncated by a crash is ignored.</p>
+ *
+ * <p>Line format (tab-separated): {@code hash status attempts timestamp id output}</p>
+ *
+ * @author Sven Roeseler
+ */
+public class JobJournal implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobJournal.class);
+    private static final HashUtils HASH_UTILS = new HashUtils();
+    private static final byte[] SEPARATOR = {0};
+
+    /**
+     * Name of the journal file written to the output directory.
+     */
+    public static final String JOURNAL_FILENAME = "journal.log";
+
+    private final Path file;
+    private final int syncBatchSize;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final FileChannel channel;
+    private final Writer writer;
+    private final ScheduledExecutorService scheduler;
+
+    private int unsyncedRecords;
+    private boolean closed;
+
+    /**
+     * Opens the journal in the specified file. Existing records are read unless the journal
+     * is reset.
+     *
+     * @param file Journal file
+     * @param reset True to discard existing records
+     * @param syncBatchSize Number of records after which the journal is forced to disk
+     * @param syncInterval Maximum time records stay unsynced
+     * @throws IOException If the journal could not be read or opened
+     */
+    public JobJournal(final Path file, boolean reset, int syncBatchSize, final Duration syncInterval)
+            throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file may not be null");
+        }
+
+        if (syncBatchSize < 1) {
+            throw new IllegalArgumentException("syncBatchSize may not be lower than 1");
+        }
+
+        if (syncInterval == null || syncInterval.isNegative() || syncInterval.isZero()) {
+            throw new IllegalArgumentException("syncInterval must be positive");
+        }
+
+        this.file = file;
+        this.syncBatchSize = syncBatchSize;
+
+        boolean append = !reset && Files.exists(file);
+        if (append) {
+            load();
+        }
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        this.writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+
+        if (append && !endsWithNewLine()) {
+            // Terminate a line truncated by a crash, so it does not corrupt the next record
+            writer.write('\n');
+            writer.flush();
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::syncQuietly, syncInterval.toMillis(), syncInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the key of an item: the SHA-256 hash over the content of the signature and
+     * the document and the canonical JSON of the configuration. An item validated with a
+     * different configuration (e.g. other reports or policy) is validated again.
+     *
+     * @param configuration Prepared validation configuration (may be null)
+     * @param item Batch item
+     * @return Key of the item
+     * @throws IOException If the files could not be read
+     */
+    public static String createKey(final PreparedConfiguration configuration, final BatchItem item)
+            throws IOException {
+        if (item == null) {
+            throw new IllegalArgumentException("item may not be null");
+        }
+
+        MessageDigest digest = HASH_UTILS.createDigest();
+        HASH_UTILS.update(digest, item.getSignature());
+        digest.update(SEPARATOR);
+
+        if (item.getDocument() != null) {
+            HASH_UTILS.update(digest, item.getDocument());
+        }
+
+        digest.update(SEPARATOR);
+
+        if (configuration != null) {
+            digest.update(configuration.getCanonicalJson().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return HASH_UTILS.toHex(digest);
+    }
+
+    /**
+     * Returns the report of an item which was already validated successfully, if the
+     * report still exists.
+     *
+     * @param key Key of the item
+     * @return Report file or null if the item has to be validated
+     */
+    public synchronized Path getCompletedOutput(final String key) {
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.status() != BatchItemResult.Status.SUCCESS || entry.output() == null
+                || !Files.exists(entry.output())) {
+            return null;
+        }
+
+        return entry.output();
+    }
+
+    /**
+     * Returns the number of items recorded in the journal.
+     *
+     * @return Number of items
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Records the result of an item. The attempt counter of the item is incremented.
+     *
+     * @param key Key of the item
+     * @param result Result of the validation
+     * @throws UncheckedIOException If the record could not be written
+     */
+    public synchronized void record(final String key, final BatchItemResult result) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+
+        Entry previous = entries.get(key);
+        Entry entry = new Entry(result.getStatus(), previous == null ? 1 : previous.attempts() + 1,
+                result.getOutput() == null ? null : result.getOutput().toAbsolutePath());
+        entries.put(key, entry);
+
+        try {
+            writer.write(String.join("\t", key, entry.status().name(), String.valueOf(entry.attempts()),
+                    Instant.now().toString(), sanitize(result.getItem().getId()),
+                    entry.output() == null ? "" : sanitize(entry.output().toString())));
+            writer.write('\n');
+            writer.flush();
+
+            if (++unsyncedRecords >= syncBatchSize) {
+                sync();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not write to journal " + file, ex);
+        }
+    }
+
+    /**
+     * Forces all records to disk.
+     *
+     * @throws IOException If the journal could not be synced
+     */
+    public synchronized void sync() throws IOException {
+        if (closed || unsyncedRecords == 0) {
+            return;
+        }
+
+        channel.force(false);
+        unsyncedRecords = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            sync();
+            closed = true;
+            writer.close();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException ex) {
+            LOGGER.warn("Could not sync journal {}", file, ex);
+        }
+    }
+
+    private void load() throws IOException {
+        int lines = 0;
+        int invalid = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lines++;
+
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 6) {
+                    invalid++;
+                    continue;
+                }
+
+                try {
+                    entries.put(fields[0], new Entry(BatchItemResult.Status.valueOf(fields[1]),
+                            Integer.parseInt(fields[2]), fields[5].isEmpty() ? null : Path.of(fields[5])));
+                } catch (IllegalArgumentException ex) {
+                    invalid++;
+                }
+            }
+        }
+
+        LOGGER.info("Journal {} read: {} records for {} items, {} invalid", file, lines, entries.size(), invalid);
+    }
+
+    private boolean endsWithNewLine() throws IOException {
+        try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = readChannel.size();
+            if (size == 0) {
+                return true;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            readChannel.read(buffer, size - 1);
+
+            return buffer.get(0) == '\n';
+        }
+    }
+
+    private static String sanitize(final String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private record Entry(BatchItemResult.Status status, int attempts, Path output) {
+    }
+}
@@ -0,0 +1,144 @@
+package dev.svero.playground.varuna.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.stream.IntStream;
+
+/**
+ * Decides when the items of a batch run are submitted, based on the size of their input
+ * files. Items are split into a lane for large and a lane for small items; the number of
+ * large items in flight has its own limit, so a few large containers cannot occupy all
+ * validation slots. In addition the total size of the inputs in flight is limited by a byte
+ * budget. Within a lane the largest items are submitted first, so they do not stretch the
+ * end of the run.
+ *
+ * @author Sven Roeseler
+ */
+public class SizeAwareScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SizeAwareScheduler.class);
+
+    /**
+     * The budget is managed in KiB, so it fits into the int permits of a semaphore.
+     */
+    private static final int UNIT = 1024;
+
+    private final long largeThreshold;
+    private final int budgetUnits;
+    private final Semaphore largePermits;
+    private final Semaphore budget;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param largeThreshold Total input size in bytes from which an item is large
+     * @param largeMaxInFlight Maximum number of large items in flight
+     * @param byteBudget Maximum total input size in bytes of the items in flight. A single
+     *                   item larger than the budget is submitted once nothing else is in flight.
+     */
+    public SizeAwareScheduler(long largeThreshold, int largeMaxInFlight, long byteBudget) {
+        if (largeThreshold < 1) {
+            throw new IllegalArgumentException("largeThreshold may not be lower than 1");
+        }
+
+        if (largeMaxInFlight < 1) {
+            throw new IllegalArgumentException("largeMaxInFlight may not be lower than 1");
+        }
+
+        if (byteBudget < UNIT || byteBudget / UNIT > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("byteBudget must be between 1 KiB and 2 TiB");
+        }
+
+        this.largeThreshold = largeThreshold;
+        this.budgetUnits = (int) (byteBudget / UNIT);
+        this.largePermits = new Semaphore(largeMaxInFlight, true);
+        this.budget = new Semaphore(budgetUnits, true);
+    }
+
+    /**
+     * Returns the total size of the input files of an item.
+     *
+     * @param item Batch item
+     * @return Size in bytes, 0 if the files could not be read
+     */
+    public long getSize(final BatchItem item) {
+        return size(item.getSignature()) + size(item.getDocument());
+    }
+
+    public boolean isLarge(long size) {
+        return size >= largeThreshold;
+    }
+
+    /**
+     * Returns the indexes of the items ordered by descending size.
+     *
+     * @param sizes Sizes of the items
+     * @return Indexes, largest item first
+     */
+    public List<Integer> order(final long[] sizes) {
+        return IntStream.range(0, sizes.length).boxed()
+                .sorted(Comparator.comparingLong((Integer index) -> sizes[index]).reversed())
+                .toList();
+    }
+
+    /**
+     * Blocks until an item of the specified size may be submitted.
+     *
+     * @param size Size of the item in bytes
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void acquire(long size) throws InterruptedException {
+        boolean large = isLarge(size);
+
+        if (large) {
+            largePermits.acquire();
+        }
+
+        try {
+            budget.acquire(toUnits(size));
+        } catch (InterruptedException ex) {
+            if (large) {
+                largePermits.release();
+            }
+
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases the resources of a finished item.
+     *
+     * @param size Size of the item in bytes
+     */
+    public void release(long size) {
+        budget.release(toUnits(size));
+
+        if (isLarge(size)) {
+            largePermits.release();
+        }
+    }
+
+    private int toUnits(long size) {
+        // Every item takes at least one unit, items larger than the budget take all of it
+        return (int) Math.max(1, Math.min(budgetUnits, (size + UNIT - 1) / UNIT));
+    }
+
+    private static long size(final Path file) {
+        if (file == null) {
+            return 0;
+        }
+
+        try {
+            return Files.size(file);
+        } catch (IOException ex) {
+            LOGGER.debug("Could not determine the size of {}", file, ex);
+            return 0;
+        }
+    }
+}
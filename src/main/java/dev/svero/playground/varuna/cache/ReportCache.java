@@ -0,0 +1,314 @@
+package dev.svero.playground.varuna.cache;
+
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.utils.HashUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Stores validation reports on the local disk, identified by a key derived from the
+ * validated input (see {@link #createKey(ValidationServiceConfiguration, Path, Path)}). The
+ * cache is bounded in size; when the limit is exceeded the least recently used reports are
+ * removed. Reports older than the time to live are not returned anymore.
+ *
+ * @author Sven Roeseler
+ */
+public class ReportCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportCache.class);
+    private static final String SUFFIX = ".report";
+    private static final HashUtils HASH_UTILS = new HashUtils();
+    private static final byte[] SEPARATOR = {0};
+    private static final byte[] NO_DOCUMENT = "<no document>".getBytes(StandardCharsets.UTF_8);
+
+    private final Path directory;
+    private final long maxSize;
+    private final Duration timeToLive;
+
+    /**
+     * Entries in access order, the eldest entry is the least recently used one.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new instance and loads the index of the reports already stored in the directory.
+     *
+     * @param directory Directory for the cached reports
+     * @param maxSize Maximum total size of the cached reports in bytes
+     * @param timeToLive Time a report stays valid after it was stored
+     * @throws IOException If the directory could not be created or read
+     */
+    public ReportCache(final Path directory, long maxSize, final Duration timeToLive) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory may not be null");
+        }
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize may not be lower than 1");
+        }
+
+        if (timeToLive == null || timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+
+        Files.createDirectories(directory);
+        loadIndex();
+    }
+
+    /**
+     * Creates the cache key for a validation. The key is the SHA-256 hash of the signature,
+     * the document and the canonical JSON of the configuration (keys sorted). The validation
+     * date is only part of the key if it was set explicitly; otherwise it is the time the
+     * configuration was created and would make every key unique.
+     *
+     * @param configuration Validation configuration (may be null)
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @return Cache key (lower-case hex string)
+     * @throws IOException If one of the files could not be read
+     */
+    public static String createKey(final ValidationServiceConfiguration configuration, Path signature,
+                                   Path document) throws IOException {
+        return createKey(configuration != null ? PreparedConfiguration.of(configuration) : null, signature,
+                document);
+    }
+
+    /**
+     * Creates the cache key for a validation with a prepared configuration, using its
+     * canonical JSON.
+     *
+     * @param configuration Prepared validation configuration (may be null)
+     * @param signature File with signature to check
+     * @param document Optional file with the signed document
+     * @return Cache key (lower-case hex string)
+     * @throws IOException If one of the files could not be read
+     */
+    public static String createKey(final PreparedConfiguration configuration, Path signature,
+                                   Path document) throws IOException {
+        if (signature == null) {
+            throw new IllegalArgumentException("signature may not be null");
+        }
+
+        MessageDigest digest = HASH_UTILS.createDigest();
+
+        HASH_UTILS.update(digest, signature);
+        digest.update(SEPARATOR);
+
+        if (document != null) {
+            HASH_UTILS.update(digest, document);
+        } else {
+            digest.update(NO_DOCUMENT);
+        }
+
+        digest.update(SEPARATOR);
+
+        if (configuration != null) {
+            digest.update(configuration.getCanonicalJson().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return HASH_UTILS.toHex(digest);
+    }
+
+    /**
+     * Copies the cached report for the specified key to the target.
+     *
+     * @param key Cache key
+     * @param target File for the report
+     * @return True if a valid report was found and copied
+     * @throws IOException If the report could not be copied
+     */
+    public boolean get(final String key, final Path target) throws IOException {
+        checkKey(key);
+
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+
+            if (entry != null && entry.storedAt().plus(timeToLive).isBefore(Instant.now())) {
+                remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return false;
+        }
+
+        try {
+            Files.copy(getFile(key), target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            // The file was removed in the meantime (e.g. by the eviction of another thread)
+            LOGGER.debug("Could not read cached report {}", key, ex);
+            missCount.incrementAndGet();
+            return false;
+        }
+
+        hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores a copy of the specified report.
+     *
+     * @param key Cache key
+     * @param report File with the report
+     * @throws IOException If the report could not be stored
+     */
+    public void put(final String key, final Path report) throws IOException {
+        checkKey(key);
+
+        long size = Files.size(report);
+        if (size > maxSize) {
+            LOGGER.debug("Report {} is larger than the cache, not caching it", key);
+            return;
+        }
+
+        Path temporaryFile = Files.createTempFile(directory, key, ".tmp");
+
+        try {
+            Files.copy(report, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+
+            synchronized (this) {
+                try {
+                    Files.move(temporaryFile, getFile(key), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(temporaryFile, getFile(key), StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                Entry previous = entries.put(key, new Entry(size, Instant.now()));
+                currentSize += size - (previous == null ? 0 : previous.size());
+
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        while (currentSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            currentSize -= eldest.getValue().size();
+            evictionCount.incrementAndGet();
+            deleteFile(eldest.getKey());
+        }
+    }
+
+    private void remove(final String key) {
+        Entry entry = entries.remove(key);
+
+        if (entry != null) {
+            currentSize -= entry.size();
+            deleteFile(key);
+        }
+    }
+
+    private void deleteFile(final String key) {
+        try {
+            Files.deleteIfExists(getFile(key));
+        } catch (IOException ex) {
+            LOGGER.warn("Could not delete cached report {}", key, ex);
+        }
+    }
+
+    /**
+     * Loads the reports stored by an earlier run, oldest first so they are evicted first.
+     */
+    private synchronized void loadIndex() throws IOException {
+        List<Path> files;
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).toList();
+        }
+
+        record IndexedFile(String key, long size, Instant storedAt) {
+        }
+
+        Stream<IndexedFile> indexedFiles = files.stream().map(path -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                String filename = path.getFileName().toString();
+
+                return new IndexedFile(filename.substring(0, filename.length() - SUFFIX.length()),
+                        attributes.size(), attributes.lastModifiedTime().toInstant());
+            } catch (IOException ex) {
+                return null;
+            }
+        });
+
+        indexedFiles.filter(Objects::nonNull)
+                .sorted(Comparator.comparing(IndexedFile::storedAt))
+                .forEach(file -> {
+                    entries.put(file.key(), new Entry(file.size(), file.storedAt()));
+                    currentSize += file.size();
+                });
+
+        evict();
+
+        LOGGER.debug("Report cache loaded with {} entries ({} bytes)", entries.size(), currentSize);
+    }
+
+    private Path getFile(final String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static void checkKey(final String key) {
+        if (StringUtils.isBlank(key) || !StringUtils.isAlphanumeric(key)) {
+            throw new IllegalArgumentException("key must be a non-empty alphanumeric string");
+        }
+    }
+
+    private record Entry(long size, Instant storedAt) {
+    }
+}
@@ -0,0 +1,24 @@
+package dev.svero.playground.varuna.exceptions;
+
+/**
+ * This exception is thrown if a request is rejected without contacting
+ * the server because the circuit breaker for the server is open.
+ *
+ * @author Sven Roeseler
+ */
+public class CircuitOpenException extends RuntimeException {
+    public CircuitOpenException() {
+    }
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+
+    public CircuitOpenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public CircuitOpenException(Throwable cause) {
+        super(cause);
+    }
+}
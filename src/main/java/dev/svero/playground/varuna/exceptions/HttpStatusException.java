@@ -0,0 +1,20 @@
+package dev.svero.playground.varuna.exceptions;
+
+/**
+ * This exception is thrown if a server answers a request with an
+ * unexpected status code.
+ *
+ * @author Sven Roeseler
+ */
+public class HttpStatusException extends RuntimeException {
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,156 @@
+package dev.svero.playground.varuna.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the metrics as attributes of a single dynamic MBean. Counters and gauges are
+ * exposed with their name; for every histogram the attributes {@code <name>.count},
+ * {@code <name>.p50}, {@code <name>.p99}, {@code <name>.p999} and {@code <name>.max}
+ * (in milliseconds) are exposed.
+ *
+ * @author Sven Roeseler
+ */
+public class JmxMetricsExporter implements MetricsExporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxMetricsExporter.class);
+
+    private final ObjectName objectName;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name Value of the name key of the MBean (e.g. a tenant name)
+     */
+    public JmxMetricsExporter(final String name) {
+        try {
+            this.objectName = new ObjectName("dev.svero.playground.varuna:type=ClientMetrics,name="
+                    + ObjectName.quote(name));
+        } catch (JMException ex) {
+            throw new IllegalArgumentException("Invalid MBean name: " + name, ex);
+        }
+    }
+
+    @Override
+    public void export(final MetricsRegistry registry) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+            server.registerMBean(new MetricsMBean(registry), objectName);
+            LOGGER.debug("Metrics registered as {}", objectName);
+        } catch (JMException ex) {
+            LOGGER.warn("Could not register the metrics MBean {}", objectName, ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException ex) {
+            LOGGER.warn("Could not unregister the metrics MBean {}", objectName, ex);
+        }
+    }
+
+    /**
+     * MBean reading the attribute values from the registry on every access.
+     */
+    private static class MetricsMBean implements DynamicMBean {
+        private final MetricsRegistry registry;
+
+        private MetricsMBean(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        private Map<String, Object> getAttributes() {
+            Map<String, Object> attributes = new TreeMap<>(registry.getValues());
+
+            registry.getHistograms().forEach((name, histogram) -> {
+                attributes.put(name + ".count", histogram.getCount());
+                attributes.put(name + ".p50", toMillis(histogram.getPercentile(50)));
+                attributes.put(name + ".p99", toMillis(histogram.getPercentile(99)));
+                attributes.put(name + ".p999", toMillis(histogram.getPercentile(99.9)));
+                attributes.put(name + ".max", toMillis(histogram.getMax()));
+            });
+
+            return attributes;
+        }
+
+        private static double toMillis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = getAttributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            Map<String, Object> attributes = getAttributes();
+            AttributeList list = new AttributeList();
+
+            for (String name : names) {
+                if (attributes.containsKey(name)) {
+                    list.add(new Attribute(name, attributes.get(name)));
+                }
+            }
+
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations available");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+
+            getAttributes().forEach((name, value) -> infos.add(new MBeanAttributeInfo(name,
+                    value.getClass().getName(), name, true, false, false)));
+
+            return new MBeanInfo(getClass().getName(), "Metrics of the validation service client",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
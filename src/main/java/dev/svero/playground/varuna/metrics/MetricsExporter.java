@@ -0,0 +1,23 @@
+package dev.svero.playground.varuna.metrics;
+
+/**
+ * Publishes the metrics of a registry to a monitoring system. Implementations for other
+ * systems (e.g. Micrometer or Prometheus) read the values via
+ * {@link MetricsRegistry#getValues()} and {@link MetricsRegistry#getHistograms()}.
+ *
+ * @author Sven Roeseler
+ */
+public interface MetricsExporter extends AutoCloseable {
+    /**
+     * Starts publishing the metrics of the specified registry.
+     *
+     * @param registry Registry with the metrics
+     */
+    void export(MetricsRegistry registry);
+
+    /**
+     * Stops publishing the metrics.
+     */
+    @Override
+    void close();
+}
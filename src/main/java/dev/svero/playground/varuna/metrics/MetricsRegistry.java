@@ -0,0 +1,103 @@
+package dev.svero.playground.varuna.metrics;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the counters, gauges and latency histograms of the client. Metrics are created on
+ * first use and identified by their name. Exporters (e.g. {@link JmxMetricsExporter}) read
+ * the current values from the registry.
+ *
+ * @author Sven Roeseler
+ */
+public class MetricsRegistry {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter with the specified name.
+     *
+     * @param name Name of the counter
+     * @return Counter instance
+     */
+    public LongAdder counter(final String name) {
+        return counters.computeIfAbsent(checkName(name), key -> new LongAdder());
+    }
+
+    /**
+     * Returns the histogram with the specified name.
+     *
+     * @param name Name of the histogram
+     * @return Histogram instance
+     */
+    public LatencyHistogram histogram(final String name) {
+        return histograms.computeIfAbsent(checkName(name), key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge whose value is read when the metrics are exported.
+     *
+     * @param name Name of the gauge
+     * @param supplier Supplier for the current value
+     */
+    public void gauge(final String name, final LongSupplier supplier) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("supplier may not be null");
+        }
+
+        gauges.put(checkName(name), supplier);
+    }
+
+    /**
+     * Returns the current values of all counters and gauges sorted by name.
+     *
+     * @return Map with the values
+     */
+    public SortedMap<String, Long> getValues() {
+        SortedMap<String, Long> values = new TreeMap<>();
+
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+
+        return values;
+    }
+
+    /**
+     * Returns all histograms sorted by name.
+     *
+     * @return Map with the histograms
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Creates a textual dump of all metrics, one metric per line.
+     *
+     * @return Dump of the metrics
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+
+        getValues().forEach((name, value) -> builder.append(name).append(' ').append(value).append('\n'));
+        getHistograms().forEach((name, histogram) -> builder.append(name).append(' ')
+                .append(histogram.summary()).append('\n'));
+
+        return builder.toString();
+    }
+
+    private static String checkName(final String name) {
+        if (StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("name may not be blank");
+        }
+
+        return name;
+    }
+}
@@ -0,0 +1,49 @@
+package dev.svero.playground.varuna.models;
+
+import java.time.Instant;
+
+public class AccessToken {
+    private final String token;
+    private final Instant issuedAt;
+    private final long expiresIn;
+    private final long refreshExpiresIn;
+
+    public AccessToken(String token, Instant issuedAt, long expiresIn, long refreshExpiresIn) {
+        if (token == null) {
+            throw new IllegalArgumentException("token may not be null");
+        }
+
+        if (issuedAt == null) {
+            throw new IllegalArgumentException("issuedAt may not be null");
+        }
+
+        this.token = token;
+        this.issuedAt = issuedAt;
+        this.expiresIn = expiresIn;
+        this.refreshExpiresIn = refreshExpiresIn;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public Instant getIssuedAt() {
+        return issuedAt;
+    }
+
+    public long getExpiresIn() {
+        return expiresIn;
+    }
+
+    public long getRefreshExpiresIn() {
+        return refreshExpiresIn;
+    }
+
+    public Instant getExpiresAt() {
+        return issuedAt.plusSeconds(expiresIn);
+    }
+
+    public boolean isValidAt(final Instant instant) {
+        return instant.isBefore(getExpiresAt());
+    }
+}
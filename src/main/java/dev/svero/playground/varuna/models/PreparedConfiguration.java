@@ -0,0 +1,266 @@
+package dev.svero.playground.varuna.models;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable form of a {@link ValidationServiceConfiguration} which is serialized once when
+ * it is created. Requests using it send the cached JSON bytes, so repeated validations with
+ * the same configuration do not serialize anything.
+ *
+ * <p>Unless the validation date was set explicitly, every request is validated at the time
+ * it is sent: the JSON is cached around the date and only the date is serialized again (at
+ * most once per second).</p>
+ *
+ * @author Sven Roeseler
+ */
+public final class PreparedConfiguration {
+    private static final String DATE_PLACEHOLDER = "${validationDateTime}";
+
+    private final byte[] jsonBytes;
+    private final byte[] jsonPrefix;
+    private final byte[] jsonSuffix;
+    private final String canonicalJson;
+    private final String profile;
+    private final Instant validationDateTime;
+    private final boolean validationDateTimePinned;
+    private final int maxRecursionDepth;
+    private volatile CurrentJson currentJson;
+
+    private PreparedConfiguration(final ValidationServiceConfiguration configuration) {
+        ValidationOptions options = configuration.getValidationOptions();
+        JsonObject tree = getGson().toJsonTree(configuration).getAsJsonObject();
+
+        this.canonicalJson = toCanonicalJson(tree, options.isValidationDateTimePinned());
+        this.profile = options.getProfile();
+        this.validationDateTimePinned = options.isValidationDateTimePinned();
+        this.maxRecursionDepth = options.getMaxRecursionDepth();
+
+        if (validationDateTimePinned) {
+            this.jsonBytes = getGson().toJson(tree).getBytes(StandardCharsets.UTF_8);
+            this.jsonPrefix = null;
+            this.jsonSuffix = null;
+            this.validationDateTime = options.getValidationDateTime() != null
+                    ? options.getValidationDateTime().toInstant() : null;
+        } else {
+            tree.getAsJsonObject("validationOptions").addProperty("validationDateTime", DATE_PLACEHOLDER);
+
+            String json = getGson().toJson(tree);
+            String placeholder = getGson().toJson(DATE_PLACEHOLDER);
+            int index = json.indexOf(placeholder);
+
+            this.jsonBytes = null;
+            this.jsonPrefix = json.substring(0, index).getBytes(StandardCharsets.UTF_8);
+            this.jsonSuffix = json.substring(index + placeholder.length()).getBytes(StandardCharsets.UTF_8);
+            this.validationDateTime = null;
+        }
+    }
+
+    /**
+     * Creates a snapshot of the specified configuration. Later changes of the configuration
+     * do not affect the snapshot.
+     *
+     * @param configuration Configuration to prepare
+     * @return Prepared configuration
+     */
+    public static PreparedConfiguration of(final ValidationServiceConfiguration configuration) {
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration may not be null");
+        }
+
+        return new PreparedConfiguration(configuration);
+    }
+
+    /**
+     * Returns the Gson instance with the date format expected by the validation service.
+     * Gson instances are thread-safe, so it is shared instead of created for every request;
+     * it is created on first use.
+     *
+     * @return Shared Gson instance
+     */
+    public static Gson getGson() {
+        return GsonHolder.GSON;
+    }
+
+    /**
+     * Returns a new builder.
+     *
+     * @return Builder instance
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the JSON sent to the validation service.
+     *
+     * @return JSON string
+     */
+    public String getJson() {
+        return new String(getJsonBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the JSON sent to the validation service encoded as UTF-8. Without a pinned
+     * validation date it contains the current time. The array is shared and must not be
+     * modified.
+     *
+     * @return JSON bytes
+     */
+    public byte[] getJsonBytes() {
+        if (validationDateTimePinned) {
+            return jsonBytes;
+        }
+
+        long second = System.currentTimeMillis() / 1000;
+        CurrentJson current = currentJson;
+
+        if (current == null || current.second != second) {
+            byte[] date = getGson().toJson(new Date(second * 1000)).getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = new byte[jsonPrefix.length + date.length + jsonSuffix.length];
+
+            System.arraycopy(jsonPrefix, 0, bytes, 0, jsonPrefix.length);
+            System.arraycopy(date, 0, bytes, jsonPrefix.length, date.length);
+            System.arraycopy(jsonSuffix, 0, bytes, jsonPrefix.length + date.length, jsonSuffix.length);
+
+            current = new CurrentJson(second, bytes);
+            currentJson = current;
+        }
+
+        return current.bytes;
+    }
+
+    /**
+     * Returns the JSON identifying the configuration: keys sorted and the validation date
+     * removed unless it was set explicitly (see {@link ValidationOptions#isValidationDateTimePinned()}).
+     *
+     * @return Canonical JSON string
+     */
+    public String getCanonicalJson() {
+        return canonicalJson;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the validation date set explicitly.
+     *
+     * @return Validation date or null if the time of the request is used
+     */
+    public Instant getValidationDateTime() {
+        return validationDateTime;
+    }
+
+    public boolean isValidationDateTimePinned() {
+        return validationDateTimePinned;
+    }
+
+    public int getMaxRecursionDepth() {
+        return maxRecursionDepth;
+    }
+
+    @Override
+    public String toString() {
+        return getJson();
+    }
+
+    private static String toCanonicalJson(final JsonObject tree, boolean validationDateTimePinned) {
+        JsonObject copy = tree.deepCopy();
+
+        if (!validationDateTimePinned && copy.has("validationOptions")) {
+            copy.getAsJsonObject("validationOptions").remove("validationDateTime");
+        }
+
+        return getGson().toJson(sortKeys(copy));
+    }
+
+    private static JsonElement sortKeys(final JsonElement element) {
+        if (element.isJsonObject()) {
+            Map<String, JsonElement> members = new TreeMap<>(element.getAsJsonObject().asMap());
+            JsonObject sorted = new JsonObject();
+            members.forEach((name, value) -> sorted.add(name, sortKeys(value)));
+            return sorted;
+        }
+
+        if (element.isJsonArray()) {
+            JsonArray sorted = new JsonArray();
+            element.getAsJsonArray().forEach(value -> sorted.add(sortKeys(value)));
+            return sorted;
+        }
+
+        return element;
+    }
+
+    private record CurrentJson(long second, byte[] bytes) {
+    }
+
+    private static final class GsonHolder {
+        private static final Gson GSON = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss").create();
+    }
+
+    /**
+     * Builder for prepared configurations.
+     */
+    public static final class Builder {
+        private final ValidationServiceConfiguration configuration = new ValidationServiceConfiguration();
+
+        private Builder() {
+        }
+
+        public Builder addReportConfiguration(final String reportType) {
+            configuration.addReportConfiguration(reportType);
+            return this;
+        }
+
+        public Builder addReportConfiguration(final String reportType, final String reportLanguage) {
+            configuration.addReportConfiguration(reportType, reportLanguage);
+            return this;
+        }
+
+        public Builder setProfile(final String profile) {
+            configuration.setProfile(profile);
+            return this;
+        }
+
+        public Builder setValidationDateTime(final Date validationDateTime) {
+            configuration.setValidationDateTime(validationDateTime == null
+                    ? null : new Date(validationDateTime.getTime()));
+            return this;
+        }
+
+        public Builder setMaxRecursionDepth(int maxRecursionDepth) {
+            configuration.setMaxRecursionDepth(maxRecursionDepth);
+            return this;
+        }
+
+        public Builder setEtsiSignatureValidationPolicy(final String policy) {
+            configuration.getValidationOptions().setEtsiSignatureValidationPolicy(policy);
+            return this;
+        }
+
+        public Builder setGovCustomSignatureValidationPolicy(final String policy) {
+            configuration.getValidationOptions().setGovCustomSignatureValidationPolicy(policy);
+            return this;
+        }
+
+        /**
+         * Serializes the configuration.
+         *
+         * @return Prepared configuration
+         */
+        public PreparedConfiguration build() {
+            return new PreparedConfiguration(configuration);
+        }
+    }
+}
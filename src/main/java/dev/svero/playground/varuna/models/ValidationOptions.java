@@ -8,6 +8,7 @@ public class ValidationOptions {
     private int maxRecursionDepth = 1;
     private String etsiSignatureValidationPolicy;
     private String govCustomSignatureValidationPolicy;
+    private transient boolean validationDateTimePinned;
 
     public String getProfile() {
         return profile;
@@ -23,6 +24,11 @@ public class ValidationOptions {
 
     public void setValidationDateTime(Date validationDateTime) {
         this.validationDateTime = validationDateTime;
+        this.validationDateTimePinned = true;
+    }
+
+    public boolean isValidationDateTimePinned() {
+        return validationDateTimePinned;
     }
 
     public int getMaxRecursionDepth() {
@@ -0,0 +1,163 @@
+package dev.svero.playground.varuna.models;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Summary of a validation report: the overall verdict and the indications of the single
+ * signatures as contained in the signature validation report (ETSI TS 119 102-2).
+ *
+ * @author Sven Roeseler
+ */
+public class ValidationResult {
+    /**
+     * Main indication of a signature (ETSI EN 319 102-1).
+     */
+    public enum Indication {
+        TOTAL_PASSED,
+        TOTAL_FAILED,
+        INDETERMINATE;
+
+        /**
+         * Returns the indication for a value of the report, either the URI
+         * ({@code urn:etsi:019102:mainindication:total-passed}) or the name ({@code TOTAL_PASSED}).
+         *
+         * @param value Indication as contained in the report
+         * @return Indication or null if the value is unknown
+         */
+        public static Indication fromReportValue(final String value) {
+            if (value == null) {
+                return null;
+            }
+
+            String name = value.substring(value.lastIndexOf(':') + 1).trim().replace('-', '_');
+
+            for (Indication indication : values()) {
+                if (indication.name().equalsIgnoreCase(name)) {
+                    return indication;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private final Indication indication;
+    private final List<SignatureResult> signatures;
+    private final List<String> reportEntries;
+
+    public ValidationResult(List<SignatureResult> signatures, List<String> reportEntries) {
+        if (signatures == null) {
+            throw new IllegalArgumentException("signatures may not be null");
+        }
+
+        if (reportEntries == null) {
+            throw new IllegalArgumentException("reportEntries may not be null");
+        }
+
+        this.signatures = List.copyOf(signatures);
+        this.reportEntries = List.copyOf(reportEntries);
+        this.indication = summarize(this.signatures);
+    }
+
+    /**
+     * Returns the overall verdict: total-passed if all signatures passed, total-failed if
+     * at least one signature failed and indeterminate otherwise.
+     *
+     * @return Overall indication or null if the report contained no signatures
+     */
+    public Indication getIndication() {
+        return indication;
+    }
+
+    public boolean isPassed() {
+        return indication == Indication.TOTAL_PASSED;
+    }
+
+    public List<SignatureResult> getSignatures() {
+        return signatures;
+    }
+
+    /**
+     * Returns the names of the files contained in the report ZIP.
+     *
+     * @return Entry names
+     */
+    public List<String> getReportEntries() {
+        return reportEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationResult{indication=" + indication + ", signatures=" + signatures + "}";
+    }
+
+    private static Indication summarize(final List<SignatureResult> signatures) {
+        if (signatures.isEmpty()) {
+            return null;
+        }
+
+        boolean indeterminate = false;
+
+        for (SignatureResult signature : signatures) {
+            if (signature.getIndication() == Indication.TOTAL_FAILED) {
+                return Indication.TOTAL_FAILED;
+            }
+
+            indeterminate |= signature.getIndication() != Indication.TOTAL_PASSED;
+        }
+
+        return indeterminate ? Indication.INDETERMINATE : Indication.TOTAL_PASSED;
+    }
+
+    /**
+     * Result of a single signature.
+     */
+    public static class SignatureResult {
+        private final String id;
+        private final Indication indication;
+        private final List<String> subIndications;
+        private final Instant signingTime;
+        private final String signer;
+
+        public SignatureResult(String id, Indication indication, List<String> subIndications, Instant signingTime,
+                               String signer) {
+            this.id = id;
+            this.indication = indication;
+            this.subIndications = subIndications == null ? List.of() : List.copyOf(subIndications);
+            this.signingTime = signingTime;
+            this.signer = signer;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Indication getIndication() {
+            return indication;
+        }
+
+        public List<String> getSubIndications() {
+            return subIndications;
+        }
+
+        /**
+         * Returns the signing time claimed by the signer.
+         *
+         * @return Signing time or null if the signature contains none
+         */
+        public Instant getSigningTime() {
+            return signingTime;
+        }
+
+        public String getSigner() {
+            return signer;
+        }
+
+        @Override
+        public String toString() {
+            return "SignatureResult{id=" + id + ", indication=" + indication + ", subIndications=" + subIndications
+                    + ", signingTime=" + signingTime + ", signer=" + signer + "}";
+        }
+    }
+}
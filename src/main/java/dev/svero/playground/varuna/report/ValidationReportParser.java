@@ -0,0 +1,315 @@
+package dev.svero.playground.varuna.report;
+
+import dev.svero.playground.varuna.models.ValidationResult;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a {@link ValidationResult} from the report ZIP returned by the validation service
+ * while the ZIP is read. Only the signature validation report (SVR, ETSI TS 119 102-2) is
+ * parsed, with StAX so no document tree is built; the other reports (PDF, HTML) are skipped.
+ * Optionally all bytes read are copied to an output stream, so the ZIP can be stored
+ * without reading the response twice.
+ *
+ * @author Sven Roeseler
+ */
+public class ValidationReportParser {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationReportParser.class);
+
+    private static final String VALIDATION_REPORT = "ValidationReport";
+    private static final String SIGNATURE_VALIDATION_REPORT = "SignatureValidationReport";
+    private static final String SIGNATURE_IDENTIFIER = "SignatureIdentifier";
+    private static final String SIGNING_TIME = "SignatureAttributes/SigningTime/Time";
+    private static final String SIGNER = "SignerInformation/Signer";
+    private static final String MAIN_INDICATION = "SignatureValidationStatus/MainIndication";
+    private static final String SUB_INDICATION = "SignatureValidationStatus/SubIndication";
+
+    private final XMLInputFactory xmlInputFactory;
+    private final DatatypeFactory datatypeFactory;
+
+    /**
+     * Creates a new instance.
+     */
+    public ValidationReportParser() {
+        xmlInputFactory = XMLInputFactory.newFactory();
+        // The reports come from a remote service, so neither DTDs nor external entities are processed
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+
+        try {
+            datatypeFactory = DatatypeFactory.newInstance();
+        } catch (DatatypeConfigurationException ex) {
+            throw new IllegalStateException("No XML datatype factory available", ex);
+        }
+    }
+
+    /**
+     * Parses the report ZIP stored in the specified file.
+     *
+     * @param file File with the report ZIP
+     * @return Validation result
+     * @throws IOException If the file could not be read or the report is invalid
+     */
+    public ValidationResult parse(final Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file may not be null");
+        }
+
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return parse(inputStream, null);
+        }
+    }
+
+    /**
+     * Parses the report ZIP read from the specified stream. The stream is read to the end but
+     * not closed.
+     *
+     * @param inputStream Stream with the report ZIP
+     * @param copy Optional stream receiving a copy of all bytes read
+     * @return Validation result
+     * @throws IOException If the stream could not be read or the report is invalid
+     */
+    public ValidationResult parse(final InputStream inputStream, final OutputStream copy) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream may not be null");
+        }
+
+        InputStream source = copy != null ? new TeeInputStream(inputStream, copy) : inputStream;
+        ZipInputStream zipInputStream = new ZipInputStream(source);
+
+        List<String> entries = new ArrayList<>();
+        List<ValidationResult.SignatureResult> signatures = null;
+        ZipEntry entry;
+
+        while ((entry = zipInputStream.getNextEntry()) != null) {
+            entries.add(entry.getName());
+
+            if (signatures == null && !entry.isDirectory()
+                    && entry.getName().toLowerCase().endsWith(".xml")) {
+                signatures = parseReport(zipInputStream, entry.getName());
+            }
+        }
+
+        // Consume the central directory, so the copy contains the complete ZIP
+        source.transferTo(OutputStream.nullOutputStream());
+
+        if (signatures == null) {
+            LOGGER.debug("No signature validation report found in {}", entries);
+            signatures = List.of();
+        }
+
+        return new ValidationResult(signatures, entries);
+    }
+
+    /**
+     * Reads the signature results of an XML entry.
+     *
+     * @return Signature results or null if the entry is no signature validation report
+     */
+    private List<ValidationResult.SignatureResult> parseReport(final InputStream inputStream, final String name)
+            throws IOException {
+        XMLStreamReader reader = null;
+
+        try {
+            // The XML reader closes its input, which would close the ZIP stream
+            reader = xmlInputFactory.createXMLStreamReader(new FilterInputStream(inputStream) {
+                @Override
+                public void close() {
+                    // Keep the ZIP stream open
+                }
+            });
+            reader.nextTag();
+
+            if (!VALIDATION_REPORT.equals(reader.getLocalName())) {
+                return null;
+            }
+
+            List<ValidationResult.SignatureResult> signatures = new ArrayList<>();
+            // Path of the current element relative to the SignatureValidationReport element
+            List<String> path = new ArrayList<>();
+            SignatureBuilder signature = null;
+            int depth = 1;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+
+                    if (depth == 2 && SIGNATURE_VALIDATION_REPORT.equals(reader.getLocalName())) {
+                        signature = new SignatureBuilder();
+                        continue;
+                    }
+
+                    if (signature == null) {
+                        continue;
+                    }
+
+                    path.add(reader.getLocalName());
+                    String relativePath = String.join("/", path);
+
+                    if (SIGNATURE_IDENTIFIER.equals(relativePath)) {
+                        signature.id = reader.getAttributeValue(null, "id");
+                    } else if (isTextElement(relativePath)) {
+                        signature.set(relativePath, reader.getElementText().trim());
+                        path.remove(path.size() - 1);
+                        depth--;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+
+                    if (signature == null) {
+                        continue;
+                    }
+
+                    if (depth == 1) {
+                        signatures.add(signature.build());
+                        signature = null;
+                    } else {
+                        path.remove(path.size() - 1);
+                    }
+                }
+            }
+
+            LOGGER.debug("Signature validation report {} contains {} signatures", name, signatures.size());
+            return signatures;
+        } catch (XMLStreamException ex) {
+            throw new IOException("Could not parse " + name, ex);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                    LOGGER.debug("Could not close XML reader", ex);
+                }
+            }
+        }
+    }
+
+    private static boolean isTextElement(final String relativePath) {
+        return SIGNING_TIME.equals(relativePath) || SIGNER.equals(relativePath)
+                || MAIN_INDICATION.equals(relativePath) || SUB_INDICATION.equals(relativePath);
+    }
+
+    private Instant parseDateTime(final String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+
+        try {
+            return datatypeFactory.newXMLGregorianCalendar(value).toGregorianCalendar().toInstant();
+        } catch (IllegalArgumentException ex) {
+            LOGGER.debug("Invalid signing time: {}", value);
+            return null;
+        }
+    }
+
+    /**
+     * Collects the values of a signature while its report is read.
+     */
+    private class SignatureBuilder {
+        private String id;
+        private String mainIndication;
+        private final List<String> subIndications = new ArrayList<>();
+        private Instant signingTime;
+        private String signer;
+
+        private void set(final String relativePath, final String value) {
+            switch (relativePath) {
+                case SIGNING_TIME -> signingTime = parseDateTime(value);
+                case SIGNER -> signer = value;
+                case MAIN_INDICATION -> mainIndication = value;
+                case SUB_INDICATION -> subIndications.add(value.substring(value.lastIndexOf(':') + 1));
+                default -> throw new IllegalArgumentException("Unexpected element: " + relativePath);
+            }
+        }
+
+        private ValidationResult.SignatureResult build() {
+            ValidationResult.Indication indication = ValidationResult.Indication.fromReportValue(mainIndication);
+
+            if (indication == null) {
+                LOGGER.warn("Unknown main indication of signature {}: {}", id, mainIndication);
+                indication = ValidationResult.Indication.INDETERMINATE;
+            }
+
+            return new ValidationResult.SignatureResult(id, indication, subIndications, signingTime, signer);
+        }
+    }
+
+    /**
+     * Copies all bytes read to an output stream.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        private TeeInputStream(InputStream inputStream, OutputStream copy) {
+            super(inputStream);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+
+            if (value != -1) {
+                copy.write(value);
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+
+            if (count > 0) {
+                copy.write(buffer, offset, count);
+            }
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes have to be copied as well
+            byte[] buffer = new byte[(int) Math.min(8192, Math.max(n, 0))];
+            long skipped = 0;
+
+            while (skipped < n) {
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count < 0) {
+                    break;
+                }
+
+                skipped += count;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package dev.svero.playground.varuna.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.svero.playground.varuna.ClientContext;
+import dev.svero.playground.varuna.exceptions.HttpStatusException;
+import dev.svero.playground.varuna.models.ValidationJob;
+import dev.svero.playground.varuna.models.PreparedConfiguration;
+import dev.svero.playground.varuna.models.ValidationServiceConfiguration;
+import dev.svero.playground.varuna.tenant.TenantRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running server accepting validation jobs over a local HTTP endpoint. The keystores,
+ * SSL context, HTTP connections and access token of the client context are created once and
+ * shared by all jobs, so a job only costs the validation itself.
+ *
+ * <p>Endpoints:</p>
+ * <ul>
+ *     <li>{@code POST /validate} with a JSON body {@code {"signature": "...", "document": "...",
+ *     "output": "...", "inline": false}}. The report is written to {@code output} (or a generated
+ *     file in the output directory) and the path is returned as JSON; with {@code inline} set
+ *     the report itself is returned and no file is kept. An optional {@code "tenant"} selects
+ *     the tenant whose keys and token are used (see {@link #setTenantRegistry(TenantRegistry)}).</li>
+ *     <li>{@code GET /health} returns the state and the number of validations in flight.</li>
+ * </ul>
+ *
+ * <p>The endpoint has no authentication, so the paths of a job are confined: the signature
+ * and the document must be located below one of the input roots (see
+ * {@link #setInputRoots(List)}) and {@code output} is resolved inside the output directory.
+ * Jobs with paths outside (also through symbolic links) are rejected.</p>
+ *
+ * <p>The requests are handled by a bounded number of threads with a bounded queue (see
+ * {@link #setWorkerLimits(int, int)}); requests arriving while both are full are answered
+ * with 503 at once.</p>
+ *
+ * <p>On {@link #stop()} no new jobs are accepted and the jobs in flight are given the drain
+ * timeout to finish.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class ValidationDaemon {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationDaemon.class);
+    private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+
+    private final ClientContext clientContext;
+    private final PreparedConfiguration serviceConfiguration;
+    private final InetSocketAddress address;
+    private final Path outputDirectory;
+    private final Duration drainTimeout;
+    private TenantRegistry tenantRegistry;
+    private List<Path> inputRoots = List.of(Path.of(""));
+    private int maxThreads = 16;
+    private int maxQueuedRequests = 64;
+    private Path realOutputDirectory;
+    private List<Path> realInputRoots;
+
+    private final AtomicBoolean stopping = new AtomicBoolean();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param clientContext Context with the clients for KeyCloak and the validation service
+     * @param serviceConfiguration Configuration used for all validations (serialized once)
+     * @param address Address to listen on (should be a loopback address)
+     * @param outputDirectory Directory for reports of jobs without output file
+     * @param drainTimeout Time given to the jobs in flight when the daemon is stopped
+     */
+    public ValidationDaemon(ClientContext clientContext, ValidationServiceConfiguration serviceConfiguration,
+                            InetSocketAddress address, Path outputDirectory, Duration drainTimeout) {
+        if (clientContext == null) {
+            throw new IllegalArgumentException("clientContext may not be null");
+        }
+
+        if (address == null) {
+            throw new IllegalArgumentException("address may not be null");
+        }
+
+        if (outputDirectory == null) {
+            throw new IllegalArgumentException("outputDirectory may not be null");
+        }
+
+        if (drainTimeout == null || drainTimeout.isNegative()) {
+            throw new IllegalArgumentException("drainTimeout may not be null or negative");
+        }
+
+        this.clientContext = clientContext;
+        this.serviceConfiguration = serviceConfiguration != null
+                ? PreparedConfiguration.of(serviceConfiguration) : null;
+        this.address = address;
+        this.outputDirectory = outputDirectory;
+        this.drainTimeout = drainTimeout;
+    }
+
+    /**
+     * Sets the registry used for jobs specifying a tenant. Jobs without tenant use the
+     * default client context.
+     *
+     * @param tenantRegistry Tenant registry or null if tenants are not supported
+     */
+    public void setTenantRegistry(TenantRegistry tenantRegistry) {
+        this.tenantRegistry = tenantRegistry;
+    }
+
+    /**
+     * Sets the directories containing the files which may be validated. Defaults to the
+     * working directory.
+     *
+     * @param inputRoots Input directories
+     */
+    public void setInputRoots(List<Path> inputRoots) {
+        if (inputRoots == null || inputRoots.isEmpty()) {
+            throw new IllegalArgumentException("inputRoots may not be null or empty");
+        }
+
+        this.inputRoots = List.copyOf(inputRoots);
+    }
+
+    /**
+     * Sets the number of threads handling requests and of requests waiting for a thread.
+     *
+     * @param maxThreads Maximum number of requests handled at the same time
+     * @param maxQueuedRequests Maximum number of requests waiting before 503 is returned
+     */
+    public void setWorkerLimits(int maxThreads, int maxQueuedRequests) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads may not be lower than 1");
+        }
+
+        if (maxQueuedRequests < 0) {
+            throw new IllegalArgumentException("maxQueuedRequests may not be negative");
+        }
+
+        this.maxThreads = maxThreads;
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    /**
+     * Starts listening for validation jobs.
+     *
+     * @throws IOException If the server socket could not be opened
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Daemon already started");
+        }
+
+        Files.createDirectories(outputDirectory);
+        realOutputDirectory = outputDirectory.toRealPath();
+
+        List<Path> roots = new ArrayList<>();
+        for (Path inputRoot : inputRoots) {
+            roots.add(inputRoot.toRealPath());
+        }
+        realInputRoots = roots;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                maxQueuedRequests > 0 ? new ArrayBlockingQueue<>(maxQueuedRequests) : new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "daemon-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                ValidationDaemon::rejectRequest);
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/validate", this::handleValidate);
+        server.createContext("/health", this::handleHealth);
+        server.start();
+
+        LOGGER.info("Validation daemon listening on {}", server.getAddress());
+    }
+
+    /**
+     * Returns the address the daemon is listening on.
+     *
+     * @return Socket address
+     */
+    public InetSocketAddress getAddress() {
+        return server != null ? server.getAddress() : address;
+    }
+
+    /**
+     * Blocks until the daemon has been stopped.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops accepting jobs and waits up to the drain timeout for the jobs in flight.
+     */
+    public void stop() {
+        if (!stopping.compareAndSet(false, true)) {
+            return;
+        }
+
+        LOGGER.info("Stopping validation daemon, draining {} validations",
+                clientContext.getValidationEngine().getInFlight());
+
+        synchronized (this) {
+            if (server != null) {
+                // One deadline for both steps, server.stop() already waits for the exchanges in flight
+                final long deadline = System.nanoTime() + drainTimeout.toNanos();
+                server.stop((int) Math.max(1, drainTimeout.toSeconds()));
+                executor.shutdown();
+
+                try {
+                    long remaining = Math.max(0, deadline - System.nanoTime());
+                    if (!executor.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                        LOGGER.warn("Jobs still running after the drain timeout");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        stopped.countDown();
+        LOGGER.info("Validation daemon stopped");
+    }
+
+    /**
+     * Handles a request for which no thread is available on the dispatcher thread of the
+     * server; the handlers answer it with 503 without reading the body.
+     */
+    private static void rejectRequest(final Runnable request, final ThreadPoolExecutor pool) {
+        OVERLOADED.set(Boolean.TRUE);
+
+        try {
+            request.run();
+        } finally {
+            OVERLOADED.remove();
+        }
+    }
+
+    private static boolean rejectIfOverloaded(final HttpExchange exchange) throws IOException {
+        if (OVERLOADED.get() == null) {
+            return false;
+        }
+
+        exchange.getResponseHeaders().add("Retry-After", "1");
+        sendError(exchange, 503, "Too many requests");
+        return true;
+    }
+
+    private void handleHealth(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (rejectIfOverloaded(exchange)) {
+                return;
+            }
+
+            JsonObject body = new JsonObject();
+            body.addProperty("status", stopping.get() ? "STOPPING" : "UP");
+            body.addProperty("inFlight", clientContext.getValidationEngine().getInFlight());
+            body.addProperty("maxInFlight", clientContext.getValidationEngine().getMaxInFlight());
+
+            sendJson(exchange, stopping.get() ? 503 : 200, body);
+        }
+    }
+
+    private void handleValidate(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (rejectIfOverloaded(exchange)) {
+                return;
+            }
+
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().add("Allow", "POST");
+                sendError(exchange, 405, "Only POST is supported");
+                return;
+            }
+
+            if (stopping.get()) {
+                sendError(exchange, 503, "Daemon is shutting down");
+                return;
+            }
+
+            ValidationJob job;
+            try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+                job = GsonHolder.GSON.fromJson(reader, ValidationJob.class);
+            } catch (JsonParseException ex) {
+                sendError(exchange, 400, "Invalid JSON: " + ex.getMessage());
+                return;
+            }
+
+            if (job == null || StringUtils.isBlank(job.getSignature())) {
+                sendError(exchange, 400, "signature may not be blank");
+                return;
+            }
+
+            Path signature = Path.of(job.getSignature());
+            Path document = StringUtils.isNotBlank(job.getDocument()) ? Path.of(job.getDocument()) : null;
+
+            // Checked before the existence, so the answer does not tell whether a path outside exists
+            if (!isInputAllowed(signature) || (document != null && !isInputAllowed(document))) {
+                sendError(exchange, 403, "Signature or document outside the input directories");
+                return;
+            }
+
+            if (!Files.isRegularFile(signature) || (document != null && !Files.isRegularFile(document))) {
+                sendError(exchange, 400, "Signature or document is not a file");
+                return;
+            }
+
+            Path output = resolveOutput(job);
+            if (output == null) {
+                sendError(exchange, 403, "Output outside the output directory");
+                return;
+            }
+
+            if (StringUtils.isBlank(job.getTenant())) {
+                process(exchange, clientContext, job, signature, document, output);
+                return;
+            }
+
+            if (tenantRegistry == null || !tenantRegistry.getTenantIds().contains(job.getTenant())) {
+                sendError(exchange, 400, "Unknown tenant: " + job.getTenant());
+                return;
+            }
+
+            try (TenantRegistry.Lease lease = tenantRegistry.acquire(job.getTenant())) {
+                process(exchange, lease.getContext(), job, signature, document, output);
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Could not process the job of tenant {}", job.getTenant(), ex);
+                sendInternalError(exchange, ex);
+            }
+        }
+    }
+
+    /**
+     * Checks that the file is located below one of the input roots after resolving symbolic links.
+     * A file which does not exist or cannot be resolved is not allowed.
+     */
+    private boolean isInputAllowed(final Path file) {
+        Path realFile;
+
+        try {
+            realFile = file.toRealPath();
+        } catch (IOException ex) {
+            return false;
+        }
+
+        for (Path root : realInputRoots) {
+            if (realFile.startsWith(root)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Resolves the output file of the job inside the output directory.
+     *
+     * @return Output file or null if it is located outside the output directory or its
+     *         directory does not exist
+     */
+    private Path resolveOutput(final ValidationJob job) throws IOException {
+        if (StringUtils.isBlank(job.getOutput()) || job.isInline()) {
+            return realOutputDirectory.resolve(UUID.randomUUID() + ".zip");
+        }
+
+        Path output = realOutputDirectory.resolve(job.getOutput()).normalize();
+        Path parent = output.getParent();
+
+        if (parent == null || !parent.startsWith(realOutputDirectory)) {
+            return null;
+        }
+
+        // Symbolic links below the output directory may point elsewhere
+        if (!Files.isDirectory(parent) || !parent.toRealPath().startsWith(realOutputDirectory)
+                || Files.isSymbolicLink(output)) {
+            return null;
+        }
+
+        return output;
+    }
+
+    private void process(final HttpExchange exchange, final ClientContext context, final ValidationJob job,
+                         final Path signature, final Path document, final Path output) throws IOException {
+        final long start = System.nanoTime();
+
+        try {
+            Path report = context.getValidationEngine()
+                    .validateAsync(serviceConfiguration, signature, document, output)
+                    .join();
+
+            if (job.isInline()) {
+                sendFile(exchange, report);
+                return;
+            }
+
+            JsonObject body = new JsonObject();
+            body.addProperty("status", "SUCCESS");
+            body.addProperty("output", report.toAbsolutePath().toString());
+            body.addProperty("durationMillis", Duration.ofNanos(System.nanoTime() - start).toMillis());
+
+            sendJson(exchange, 200, body);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "Interrupted");
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            LOGGER.warn("Could not validate {}", signature, cause);
+
+            sendError(exchange, cause instanceof HttpStatusException ? 502 : 500,
+                    cause.getClass().getSimpleName() + ": " + cause.getMessage());
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not validate {}", signature, ex);
+            sendInternalError(exchange, ex);
+        } finally {
+            if (job.isInline()) {
+                Files.deleteIfExists(output);
+            }
+        }
+    }
+
+    private static void sendFile(final HttpExchange exchange, final Path file) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/zip");
+        exchange.sendResponseHeaders(200, Files.size(file));
+
+        try (InputStream inputStream = Files.newInputStream(file);
+             OutputStream outputStream = exchange.getResponseBody()) {
+            inputStream.transferTo(outputStream);
+        }
+    }
+
+    /**
+     * Answers with 500 unless the response was already started.
+     */
+    private static void sendInternalError(final HttpExchange exchange, final RuntimeException ex)
+            throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendError(exchange, 500, ex.getClass().getSimpleName() + ": " + ex.getMessage());
+        }
+    }
+
+    private static void sendError(final HttpExchange exchange, int statusCode, final String message)
+            throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("status", "FAILED");
+        body.addProperty("error", message);
+
+        sendJson(exchange, statusCode, body);
+    }
+
+    private static void sendJson(final HttpExchange exchange, int statusCode, final JsonObject body)
+            throws IOException {
+        byte[] data = GsonHolder.GSON.toJson(body).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, data.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(data);
+        }
+    }
+
+    /**
+     * Creates the Gson instance when the first job is received.
+     */
+    private static final class GsonHolder {
+        private static final Gson GSON = new Gson();
+    }
+}
@@ -0,0 +1,348 @@
+package dev.svero.playground.varuna.tenant;
+
+import dev.svero.playground.varuna.ClientContext;
+import dev.svero.playground.varuna.Configuration;
+import dev.svero.playground.varuna.metrics.JmxMetricsExporter;
+import dev.svero.playground.varuna.metrics.MetricsExporter;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import dev.svero.playground.varuna.utils.CredentialManager;
+import dev.svero.playground.varuna.utils.HttpUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the client contexts (SSL context, private key, KeyCloak client, token cache) of
+ * several tenants in one process. A tenant's context is created on first use from the tenant
+ * configuration (see {@link Configuration#forTenant(String)}) and closed again after it was
+ * idle for the configured time.
+ *
+ * <p>Tenants using the same TLS identity (keystore, private key alias and trust store) share
+ * one HTTP client and therefore its connection pool; the KeyCloak client and the access token
+ * stay separate per tenant. The shared client keeps its own credentials, which are reloaded
+ * when the store files change and also provide the private key for the tenants' client
+ * assertions, and exports its metrics under the name {@code http-<identity>}. It is closed
+ * when the last tenant using it is closed.</p>
+ *
+ * <p>Contexts are handed out as {@link Lease}s; a leased context is never evicted.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class TenantRegistry implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TenantRegistry.class);
+
+    private final Configuration configuration;
+    private final Set<String> tenantIds;
+    private final Duration idleTimeout;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, Tenant> tenants = new HashMap<>();
+    private final Map<String, SharedHttpUtils> sharedHttpUtils = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param configuration Configuration with the tenant settings
+     * @param idleTimeout Time after which an unused tenant context is closed
+     */
+    public TenantRegistry(Configuration configuration, Duration idleTimeout) {
+        if (configuration == null) {
+            throw new IllegalArgumentException("configuration may not be null");
+        }
+
+        if (idleTimeout == null || idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+
+        this.configuration = configuration;
+        this.tenantIds = new TreeSet<>(configuration.getTenantIds());
+        this.idleTimeout = idleTimeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tenant-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(1000, idleTimeout.toMillis() / 2);
+        scheduler.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the ids of the configured tenants.
+     *
+     * @return Tenant ids
+     */
+    public Set<String> getTenantIds() {
+        return Set.copyOf(tenantIds);
+    }
+
+    /**
+     * Returns the ids of the tenants whose context is currently loaded.
+     *
+     * @return Tenant ids
+     */
+    public synchronized Set<String> getLoadedTenantIds() {
+        return Set.copyOf(tenants.keySet());
+    }
+
+    /**
+     * Leases the context of the specified tenant, creating it if necessary. The lease has
+     * to be closed when the context is no longer used.
+     *
+     * @param tenantId Id of the tenant
+     * @return Lease on the tenant's context
+     */
+    public Lease acquire(final String tenantId) {
+        if (StringUtils.isBlank(tenantId)) {
+            throw new IllegalArgumentException("tenantId may not be blank");
+        }
+
+        if (!tenantIds.contains(tenantId)) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenantId);
+        }
+
+        Tenant tenant;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Tenant registry is closed");
+            }
+
+            tenant = tenants.computeIfAbsent(tenantId, Tenant::new);
+            tenant.leases++;
+        }
+
+        try {
+            return new Lease(tenant, tenant.getContext());
+        } catch (RuntimeException ex) {
+            release(tenant);
+            synchronized (this) {
+                if (tenants.get(tenantId) == tenant && tenant.leases == 0) {
+                    tenants.remove(tenantId);
+                }
+            }
+
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+
+        List<Tenant> loaded;
+        synchronized (this) {
+            closed = true;
+            loaded = List.copyOf(tenants.values());
+            tenants.clear();
+        }
+
+        loaded.forEach(this::closeTenant);
+    }
+
+    private synchronized void release(final Tenant tenant) {
+        tenant.leases--;
+        tenant.lastUsed = System.nanoTime();
+    }
+
+    private void evictIdle() {
+        List<Tenant> idle;
+        final long now = System.nanoTime();
+
+        synchronized (this) {
+            idle = tenants.values().stream()
+                    .filter(tenant -> tenant.leases == 0 && now - tenant.lastUsed > idleTimeout.toNanos())
+                    .toList();
+            idle.forEach(tenant -> tenants.remove(tenant.id));
+        }
+
+        for (Tenant tenant : idle) {
+            LOGGER.info("Closing context of idle tenant {}", tenant.id);
+            closeTenant(tenant);
+        }
+    }
+
+    private void closeTenant(final Tenant tenant) {
+        ClientContext context = tenant.context;
+        if (context == null) {
+            return;
+        }
+
+        try {
+            context.close();
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Could not close context of tenant {}", tenant.id, ex);
+        }
+
+        if (tenant.identity != null) {
+            releaseHttpUtils(tenant.identity);
+        }
+    }
+
+    /**
+     * Returns the HTTP client for the specified TLS identity, creating it if necessary.
+     */
+    private SharedHttpUtils acquireHttpUtils(final String identity, final Configuration tenantConfiguration) {
+        synchronized (sharedHttpUtils) {
+            SharedHttpUtils shared = sharedHttpUtils.get(identity);
+            if (shared == null) {
+                LOGGER.debug("Creating HTTP client for TLS identity {}", identity);
+                shared = SharedHttpUtils.create(identity, tenantConfiguration);
+                sharedHttpUtils.put(identity, shared);
+            }
+
+            shared.references++;
+            return shared;
+        }
+    }
+
+    private void releaseHttpUtils(final String identity) {
+        synchronized (sharedHttpUtils) {
+            SharedHttpUtils shared = sharedHttpUtils.get(identity);
+            if (shared != null && --shared.references == 0) {
+                sharedHttpUtils.remove(identity);
+                shared.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a key identifying the TLS client identity of a configuration.
+     */
+    private static String getTlsIdentity(final Configuration tenantConfiguration) {
+        return String.join("|",
+                tenantConfiguration.getString("keystore.filename", ""),
+                tenantConfiguration.getString("keystore.private_key.alias", ""),
+                tenantConfiguration.getString("truststore.filename", ""));
+    }
+
+    private class Tenant {
+        private final String id;
+        private int leases;
+        private long lastUsed = System.nanoTime();
+        private volatile ClientContext context;
+        private String identity;
+
+        private Tenant(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Creates the context on first use; concurrent callers wait for the creation.
+         */
+        private synchronized ClientContext getContext() {
+            if (context == null) {
+                Configuration tenantConfiguration = configuration.forTenant(id);
+                String tlsIdentity = getTlsIdentity(tenantConfiguration);
+                SharedHttpUtils shared = acquireHttpUtils(tlsIdentity, tenantConfiguration);
+
+                try {
+                    context = ClientContext.create(tenantConfiguration, shared.httpUtils, shared.credentialManager);
+                } catch (RuntimeException ex) {
+                    releaseHttpUtils(tlsIdentity);
+                    throw ex;
+                }
+
+                identity = tlsIdentity;
+                LOGGER.info("Context of tenant {} created", id);
+            }
+
+            return context;
+        }
+    }
+
+    /**
+     * HTTP client of a TLS identity together with its credentials and metrics.
+     */
+    private static class SharedHttpUtils {
+        private final CredentialManager credentialManager;
+        private final HttpUtils httpUtils;
+        private final MetricsExporter metricsExporter;
+        private int references;
+
+        private SharedHttpUtils(CredentialManager credentialManager, HttpUtils httpUtils,
+                                MetricsExporter metricsExporter) {
+            this.credentialManager = credentialManager;
+            this.httpUtils = httpUtils;
+            this.metricsExporter = metricsExporter;
+        }
+
+        private static SharedHttpUtils create(final String identity, final Configuration tenantConfiguration) {
+            CredentialManager credentialManager = ClientContext.createCredentialManager(tenantConfiguration);
+            MetricsRegistry metricsRegistry = new MetricsRegistry();
+            HttpUtils httpUtils;
+
+            try {
+                httpUtils = ClientContext.createHttpUtils(tenantConfiguration, credentialManager, metricsRegistry);
+            } catch (RuntimeException ex) {
+                credentialManager.close();
+                throw ex;
+            }
+
+            ClientContext.watchCredentials(tenantConfiguration, credentialManager);
+
+            MetricsExporter metricsExporter = null;
+            if (tenantConfiguration.getBoolean("metrics.jmx.enabled", true)) {
+                metricsExporter = new JmxMetricsExporter("http-" + identity);
+                metricsExporter.export(metricsRegistry);
+            }
+
+            return new SharedHttpUtils(credentialManager, httpUtils, metricsExporter);
+        }
+
+        private void close() {
+            httpUtils.close();
+            credentialManager.close();
+
+            if (metricsExporter != null) {
+                metricsExporter.close();
+            }
+        }
+    }
+
+    /**
+     * Lease on a tenant context. The context must not be used after the lease was closed.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Tenant tenant;
+        private final ClientContext context;
+        private boolean released;
+
+        private Lease(Tenant tenant, ClientContext context) {
+            this.tenant = tenant;
+            this.context = context;
+        }
+
+        public String getTenantId() {
+            return tenant.id;
+        }
+
+        public ClientContext getContext() {
+            return context;
+        }
+
+        @Override
+        public void close() {
+            synchronized (TenantRegistry.this) {
+                if (released) {
+                    return;
+                }
+
+                released = true;
+            }
+
+            release(tenant);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package dev.svero.playground.varuna.utils;
+
+import dev.svero.playground.varuna.exceptions.CircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * Implements a simple circuit breaker for one server. After the configured number of
+ * consecutive failures the circuit opens and requests are rejected immediately. When the
+ * open duration has passed a single trial request is let through; its outcome decides
+ * whether the circuit closes again or stays open.
+ *
+ * @author Sven Roeseler
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * States of the circuit breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long rejectedCount;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name Name used in log messages (e.g. host and port)
+     * @param failureThreshold Number of consecutive failures that open the circuit
+     * @param openDuration Time the circuit stays open before a trial request is allowed
+     */
+    public CircuitBreaker(final String name, int failureThreshold, Duration openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold may not be lower than 1");
+        }
+
+        if (openDuration == null || openDuration.isNegative()) {
+            throw new IllegalArgumentException("openDuration may not be null or negative");
+        }
+
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Checks if a request may be sent.
+     *
+     * @throws CircuitOpenException If the circuit is open
+     */
+    public synchronized void acquirePermission() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+            LOGGER.info("Circuit for {} is half open, sending trial request", name);
+            state = State.HALF_OPEN;
+            return;
+        }
+
+        if (state != State.CLOSED) {
+            rejectedCount++;
+            throw new CircuitOpenException("Circuit for " + name + " is open");
+        }
+    }
+
+    /**
+     * Records a successful request.
+     */
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Circuit for {} closed", name);
+        }
+
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failed request.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            LOGGER.warn("Circuit for {} opened after {} consecutive failures", name, consecutiveFailures);
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Records a request without outcome (e.g. interrupted or failed before it reached the
+     * server). A trial request without outcome puts the circuit back to open, so the next
+     * request is let through as trial request again.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            LOGGER.debug("Trial request for {} had no outcome, circuit open again", name);
+            state = State.OPEN;
+            openedAt = System.nanoTime() - openDurationNanos;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+}
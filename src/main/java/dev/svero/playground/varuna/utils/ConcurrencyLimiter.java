@@ -0,0 +1,194 @@
+package dev.svero.playground.varuna.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent requests to a server and adapts the limit to the observed
+ * latency (additive increase, multiplicative decrease). While the server keeps up, the limit
+ * is raised by one per round of requests; when the short-term average latency rises clearly
+ * above the long-term average, or requests are rejected as overloaded (429, 503, timeouts),
+ * the limit is reduced. A limiter with equal minimum and maximum limit behaves like a plain
+ * semaphore.
+ *
+ * <p>Because the latency of a validation depends heavily on the document, the baseline is a
+ * slowly moving average of all latencies rather than the minimum latency.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class ConcurrencyLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private static final double SHORT_SMOOTHING = 0.1;
+    private static final double LONG_SMOOTHING = 0.01;
+
+    /**
+     * Outcome of a request.
+     */
+    public enum Outcome {
+        /**
+         * The request was processed, its latency is a valid sample.
+         */
+        SUCCESS,
+        /**
+         * The request was rejected or timed out because the server is overloaded.
+         */
+        DROPPED,
+        /**
+         * The request failed for a reason unrelated to the load (e.g. invalid input).
+         */
+        IGNORED
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+
+    private double limit;
+    private int inFlight;
+    private double shortLatency;
+    private double longLatency;
+    private long lastDecrease;
+
+    /**
+     * Creates a limiter with a fixed limit.
+     *
+     * @param limit Maximum number of concurrent requests
+     */
+    public ConcurrencyLimiter(int limit) {
+        this(limit, limit, limit, 2.0, 0.9);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param initialLimit Limit to start with
+     * @param minLimit Lower bound of the limit
+     * @param maxLimit Upper bound of the limit
+     * @param tolerance Factor by which the short-term latency may exceed the long-term latency
+     *                  before the limit is reduced
+     * @param backoffRatio Factor applied to the limit on overload
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit may not be lower than 1");
+        }
+
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit may not be lower than minLimit");
+        }
+
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+        }
+
+        if (tolerance < 1.0) {
+            throw new IllegalArgumentException("tolerance may not be lower than 1");
+        }
+
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Blocks until a request may be sent.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+
+        inFlight++;
+    }
+
+    /**
+     * Releases the permit of a finished request and adapts the limit.
+     *
+     * @param latencyNanos Duration of the request in nanoseconds
+     * @param outcome Outcome of the request
+     */
+    public synchronized void release(long latencyNanos, final Outcome outcome) {
+        if (inFlight == 0) {
+            throw new IllegalStateException("No permit acquired");
+        }
+
+        int previousInFlight = inFlight--;
+
+        if (minLimit < maxLimit) {
+            switch (outcome) {
+                case SUCCESS -> onSample(latencyNanos, previousInFlight);
+                case DROPPED -> decrease("request dropped");
+                case IGNORED -> {
+                    // No information about the load
+                }
+            }
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return Maximum number of concurrent requests
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    private void onSample(long latencyNanos, int inFlightAtCompletion) {
+        if (longLatency == 0) {
+            shortLatency = latencyNanos;
+            longLatency = latencyNanos;
+            return;
+        }
+
+        shortLatency += SHORT_SMOOTHING * (latencyNanos - shortLatency);
+        longLatency += LONG_SMOOTHING * (latencyNanos - longLatency);
+
+        if (shortLatency > longLatency * tolerance) {
+            decrease("latency rising");
+        } else if (inFlightAtCompletion >= (int) limit) {
+            // Only raise the limit if it was actually used, otherwise it grows without bounds
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Reduces the limit at most once per average latency, as the requests already in flight
+     * report the same overload.
+     */
+    private void decrease(final String reason) {
+        long now = System.nanoTime();
+
+        if (lastDecrease != 0 && now - lastDecrease < shortLatency) {
+            return;
+        }
+
+        lastDecrease = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * backoffRatio);
+
+        if ((int) previous != (int) limit) {
+            LOGGER.debug("Concurrency limit reduced from {} to {} ({})", (int) previous, (int) limit, reason);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package dev.svero.playground.varuna.utils;
+
+import dev.svero.playground.varuna.exceptions.KeyStoreUtilsException;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads the key store with the client certificate and the trust store once and provides the
+ * SSL context and the private key for signing client assertions. The SSL context is created
+ * only once; its key and trust managers delegate to the currently loaded credentials. When
+ * the credentials are reloaded (e.g. after a certificate rotation) new handshakes use the
+ * new credentials, while established connections and requests in flight are not affected.
+ *
+ * <p>With {@link #startWatching(Duration)} the store files are watched and reloaded
+ * automatically when they change. If a reload fails, the previous credentials stay active.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class CredentialManager implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialManager.class);
+
+    /**
+     * Location and access data of a key store.
+     *
+     * @param file Key store file
+     * @param password Password of the key store
+     * @param type Type of the key store (PKCS12, JKS)
+     */
+    public record StoreSource(Path file, String password, String type) {
+        public StoreSource {
+            if (file == null) {
+                throw new IllegalArgumentException("file may not be null");
+            }
+
+            if (StringUtils.isBlank(password)) {
+                throw new IllegalArgumentException("password may not be blank");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.toString();
+        }
+    }
+
+    private final StoreSource keyStoreSource;
+    private final StoreSource trustStoreSource;
+    private final String privateKeyAlias;
+    private final String privateKeyPassword;
+    private final SSLContext sslContext;
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong reloadFailureCount = new AtomicLong();
+
+    private volatile Credentials credentials;
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * Creates a new instance and loads the key store and the trust store in parallel.
+     *
+     * @param keyStoreSource Key store with the client certificate and private key
+     * @param trustStoreSource Trust store with the trusted certificates
+     * @param privateKeyAlias Alias of the private key
+     * @param privateKeyPassword Password of the private key
+     */
+    public CredentialManager(StoreSource keyStoreSource, StoreSource trustStoreSource, String privateKeyAlias,
+                             String privateKeyPassword) {
+        if (keyStoreSource == null) {
+            throw new IllegalArgumentException("keyStoreSource may not be null");
+        }
+
+        if (trustStoreSource == null) {
+            throw new IllegalArgumentException("trustStoreSource may not be null");
+        }
+
+        if (StringUtils.isAnyBlank(privateKeyAlias, privateKeyPassword)) {
+            throw new IllegalArgumentException("Neither privateKeyAlias nor privateKeyPassword may be blank");
+        }
+
+        this.keyStoreSource = keyStoreSource;
+        this.trustStoreSource = trustStoreSource;
+        this.privateKeyAlias = privateKeyAlias;
+        this.privateKeyPassword = privateKeyPassword;
+        this.credentials = load();
+        this.sslContext = Utils.SSL_UTILS.createSSLContext(new DelegatingKeyManager(), new DelegatingTrustManager());
+    }
+
+    /**
+     * Returns the SSL context. It stays the same for the lifetime of the manager.
+     *
+     * @return SSL context using the current credentials
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Returns the current private key.
+     *
+     * @return Private key
+     */
+    public PrivateKey getPrivateKey() {
+        return credentials.privateKey();
+    }
+
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    public long getReloadFailureCount() {
+        return reloadFailureCount.get();
+    }
+
+    /**
+     * Loads the stores again and swaps in the new credentials. On failure the current
+     * credentials stay active.
+     *
+     * @return True if the credentials were reloaded
+     */
+    public boolean reload() {
+        try {
+            credentials = load();
+            reloadCount.incrementAndGet();
+            LOGGER.info("Credentials reloaded from {} and {}", keyStoreSource, trustStoreSource);
+            return true;
+        } catch (RuntimeException ex) {
+            reloadFailureCount.incrementAndGet();
+            LOGGER.warn("Could not reload credentials, keeping the current ones", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Starts watching the store files. Changes are collected for the specified delay (so a
+     * file is not read while it is still written) and then the credentials are reloaded.
+     *
+     * @param delay Time to wait after a change before reloading
+     * @throws IOException If the directories could not be watched
+     */
+    public synchronized void startWatching(final Duration delay) throws IOException {
+        if (delay == null || delay.isNegative()) {
+            throw new IllegalArgumentException("delay may not be null or negative");
+        }
+
+        if (watchService != null) {
+            return;
+        }
+
+        Path keyStoreFile = keyStoreSource.file().toAbsolutePath();
+        Path trustStoreFile = trustStoreSource.file().toAbsolutePath();
+        // Key store and trust store may be the same file or in the same directory
+        Set<Path> directories = new HashSet<>(List.of(keyStoreFile.getParent(), trustStoreFile.getParent()));
+        Set<Path> files = new HashSet<>(List.of(keyStoreFile, trustStoreFile));
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path directory : directories) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+
+        final WatchService service = watchService;
+        watcher = new Thread(() -> watch(service, files, delay), "credential-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        LOGGER.debug("Watching {} for changes", files);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService == null) {
+            return;
+        }
+
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            LOGGER.debug("Could not close watch service", ex);
+        }
+
+        watcher.interrupt();
+        watchService = null;
+        watcher = null;
+    }
+
+    private void watch(final WatchService service, final Set<Path> files, final Duration delay) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean changed = poll(service.take(), files);
+
+                if (!changed) {
+                    continue;
+                }
+
+                // Collect further events of the same update before reloading
+                WatchKey key;
+                while ((key = service.poll(delay.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    poll(key, files);
+                }
+
+                reload();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // Manager closed
+        }
+    }
+
+    private static boolean poll(final WatchKey key, final Set<Path> files) {
+        boolean changed = false;
+        Path directory = (Path) key.watchable();
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.context() instanceof Path path && files.contains(directory.resolve(path))) {
+                changed = true;
+            }
+        }
+
+        key.reset();
+        return changed;
+    }
+
+    private Credentials load() {
+        CompletableFuture<X509ExtendedTrustManager> trustManager = CompletableFuture.supplyAsync(
+                () -> Utils.SSL_UTILS.createTrustManager(loadStore(trustStoreSource)));
+
+        KeyStore keyStore = loadStore(keyStoreSource);
+        PrivateKey privateKey = Utils.KEY_STORE_UTILS.getKey(keyStore, privateKeyAlias, privateKeyPassword);
+        if (privateKey == null) {
+            throw new KeyStoreUtilsException("No private key " + privateKeyAlias + " found in " + keyStoreSource);
+        }
+
+        X509ExtendedKeyManager keyManager = Utils.SSL_UTILS.createKeyManager(keyStore, keyStoreSource.password());
+
+        try {
+            return new Credentials(privateKey, keyManager, trustManager.join());
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+        }
+    }
+
+    private static KeyStore loadStore(final StoreSource source) {
+        return Utils.KEY_STORE_UTILS.loadKeyStore(source.file().toString(), source.password(),
+                StringUtils.defaultIfBlank(source.type(), "PKCS12"));
+    }
+
+    /**
+     * Holds the utility instances, so they are only created when credentials are loaded.
+     */
+    private static final class Utils {
+        private static final KeyStoreUtils KEY_STORE_UTILS = new KeyStoreUtils();
+        private static final SSLUtils SSL_UTILS = new SSLUtils();
+    }
+
+    private record Credentials(PrivateKey privateKey, X509ExtendedKeyManager keyManager,
+                               X509ExtendedTrustManager trustManager) {
+    }
+
+    /**
+     * Key manager delegating to the current credentials.
+     */
+    private class DelegatingKeyManager extends X509ExtendedKeyManager {
+        @Override
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return credentials.keyManager().getClientAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+            return credentials.keyManager().chooseClientAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+            return credentials.keyManager().chooseEngineClientAlias(keyType, issuers, engine);
+        }
+
+        @Override
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            return credentials.keyManager().getServerAliases(keyType, issuers);
+        }
+
+        @Override
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            return credentials.keyManager().chooseServerAlias(keyType, issuers, socket);
+        }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return credentials.keyManager().chooseEngineServerAlias(keyType, issuers, engine);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String alias) {
+            return credentials.keyManager().getCertificateChain(alias);
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String alias) {
+            return credentials.keyManager().getPrivateKey(alias);
+        }
+    }
+
+    /**
+     * Trust manager delegating to the current credentials.
+     */
+    private class DelegatingTrustManager extends X509ExtendedTrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            credentials.trustManager().checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            credentials.trustManager().checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            credentials.trustManager().checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            credentials.trustManager().checkServerTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            credentials.trustManager().checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            credentials.trustManager().checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return credentials.trustManager().getAcceptedIssuers();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package dev.svero.playground.varuna.utils;
+
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Measures the phases of a single request/response exchange: upload of the request body,
+ * time until the response headers arrive (server processing) and download of the response
+ * body. The measurements are recorded in the metrics registry.
+ *
+ * @author Sven Roeseler
+ */
+class ExchangeMetrics {
+    static final String UPLOAD = "http.upload";
+    static final String TIME_TO_FIRST_BYTE = "http.ttfb";
+    static final String DOWNLOAD = "http.download";
+    static final String BYTES_SENT = "http.bytes.sent";
+    static final String BYTES_RECEIVED = "http.bytes.received";
+
+    private final MetricsRegistry registry;
+    private final long startNanos = System.nanoTime();
+    private volatile long uploadCompletedNanos;
+    private volatile long headersReceivedNanos;
+
+    ExchangeMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns a copy of the request whose body publisher records the upload.
+     *
+     * @param request Original request
+     * @return Request with metered body publisher
+     */
+    HttpRequest meter(final HttpRequest request) {
+        return request.bodyPublisher()
+                .filter(publisher -> publisher.contentLength() != 0)
+                .map(publisher -> HttpRequest.newBuilder(request, (name, value) -> true)
+                        .method(request.method(), new MeteredBodyPublisher(publisher))
+                        .build())
+                .orElse(request);
+    }
+
+    /**
+     * Returns a body handler which records the time to the first byte and the download.
+     *
+     * @param bodyHandler Original body handler
+     * @param <T> Type of the response body
+     * @return Metered body handler
+     */
+    <T> HttpResponse.BodyHandler<T> meter(final HttpResponse.BodyHandler<T> bodyHandler) {
+        return responseInfo -> {
+            headersReceivedNanos = System.nanoTime();
+
+            long requestSentNanos = uploadCompletedNanos == 0 ? startNanos : uploadCompletedNanos;
+            registry.histogram(TIME_TO_FIRST_BYTE).record(headersReceivedNanos - requestSentNanos);
+
+            return new MeteredBodySubscriber<>(bodyHandler.apply(responseInfo));
+        };
+    }
+
+    private class MeteredBodyPublisher implements HttpRequest.BodyPublisher {
+        private final HttpRequest.BodyPublisher delegate;
+
+        private MeteredBodyPublisher(HttpRequest.BodyPublisher delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            final long subscribedNanos = System.nanoTime();
+
+            delegate.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(subscription);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    registry.counter(BYTES_SENT).add(item.remaining());
+                    subscriber.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    subscriber.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    uploadCompletedNanos = System.nanoTime();
+                    registry.histogram(UPLOAD).record(uploadCompletedNanos - subscribedNanos);
+                    subscriber.onComplete();
+                }
+            });
+        }
+    }
+
+    private class MeteredBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+
+        private MeteredBodySubscriber(HttpResponse.BodySubscriber<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            long bytes = 0;
+            for (ByteBuffer buffer : item) {
+                bytes += buffer.remaining();
+            }
+
+            registry.counter(BYTES_RECEIVED).add(bytes);
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            registry.histogram(DOWNLOAD).recordSince(headersReceivedNanos);
+            delegate.onComplete();
+        }
+    }
+}
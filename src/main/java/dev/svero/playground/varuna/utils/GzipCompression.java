@@ -0,0 +1,167 @@
+package dev.svero.playground.varuna.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Implements the gzip compression of request bodies and the decompression of responses.
+ * Compression is pull-based: the data is compressed while the HTTP client reads the body,
+ * so neither the uncompressed nor the compressed body is held in memory and no additional
+ * thread is needed.
+ *
+ * @author Sven Roeseler
+ */
+final class GzipCompression {
+    /**
+     * Value of the Content-Encoding header for gzip.
+     */
+    static final String ENCODING = "gzip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Fixed gzip header: magic number, deflate method, no flags, no modification time,
+     * no extra flags, unknown operating system.
+     */
+    private static final byte[] HEADER = {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private GzipCompression() {
+    }
+
+    /**
+     * Returns a stream with the gzip-compressed content of the source stream.
+     *
+     * @param source Stream with uncompressed data
+     * @return Stream with compressed data
+     */
+    static InputStream compress(final InputStream source) {
+        final CRC32 crc = new CRC32();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+        InputStream body = new DeflaterInputStream(new CheckedInputStream(source, crc), deflater, BUFFER_SIZE);
+
+        // The trailer is created when it is read, i.e. after the body has been consumed completely
+        InputStream trailer = new InputStream() {
+            private InputStream delegate;
+
+            @Override
+            public int read() throws IOException {
+                return getDelegate().read();
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                return getDelegate().read(bytes, offset, length);
+            }
+
+            @Override
+            public void close() {
+                deflater.end();
+            }
+
+            private InputStream getDelegate() {
+                if (delegate == null) {
+                    long value = crc.getValue();
+                    long size = deflater.getBytesRead();
+                    delegate = new ByteArrayInputStream(new byte[] {
+                            (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                            (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)
+                    });
+                }
+
+                return delegate;
+            }
+        };
+
+        return new SequenceInputStream(Collections.enumeration(List.of(new ByteArrayInputStream(HEADER), body,
+                trailer)));
+    }
+
+    /**
+     * Decompresses gzip-compressed data.
+     *
+     * @param data Compressed data
+     * @return Decompressed data
+     * @throws IOException If the data is not valid gzip data
+     */
+    static byte[] decompress(final byte[] data) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 4);
+
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(data), BUFFER_SIZE)) {
+            inputStream.transferTo(outputStream);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Decompresses a gzip-compressed file.
+     *
+     * @param source Compressed file
+     * @param target File for the decompressed data (replaced if it exists)
+     * @throws IOException If the file could not be read or written or is not valid gzip data
+     */
+    static void decompress(final Path source, final Path target) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(source), BUFFER_SIZE);
+             OutputStream outputStream = Files.newOutputStream(target)) {
+            inputStream.transferTo(outputStream);
+        }
+    }
+
+    /**
+     * Checks whether the value of an Accept-Encoding or Content-Encoding header contains gzip.
+     *
+     * @param headerValue Header value (may be null)
+     * @return True if gzip is listed
+     */
+    static boolean containsGzip(final String headerValue) {
+        if (headerValue == null) {
+            return false;
+        }
+
+        for (String token : headerValue.split(",")) {
+            String[] elements = token.split(";");
+            String coding = elements[0].trim();
+
+            if ((ENCODING.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) && !isRejected(elements)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks whether the parameters of a coding contain a quality value of 0 ("not acceptable").
+     */
+    private static boolean isRejected(final String[] elements) {
+        for (int i = 1; i < elements.length; i++) {
+            String parameter = elements[i].trim();
+
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) == 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.svero.playground.varuna.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Implements methods for calculating SHA-256 hashes of files and data.
+ *
+ * @author Sven Roeseler
+ */
+public class HashUtils {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Creates a new SHA-256 message digest.
+     *
+     * @return Message digest
+     */
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported by the runtime", ex);
+        }
+    }
+
+    /**
+     * Adds the content of the specified file to the digest. The file is read in chunks.
+     *
+     * @param digest Message digest
+     * @param file File to add
+     * @throws IOException If the file could not be read
+     */
+    public void update(final MessageDigest digest, final Path file) throws IOException {
+        if (digest == null) {
+            throw new IllegalArgumentException("digest may not be null");
+        }
+
+        if (file == null) {
+            throw new IllegalArgumentException("file may not be null");
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the specified file.
+     *
+     * @param file File to hash
+     * @return Hash as lower-case hex string
+     * @throws IOException If the file could not be read
+     */
+    public String sha256(final Path file) throws IOException {
+        MessageDigest digest = createDigest();
+        update(digest, file);
+
+        return toHex(digest);
+    }
+
+    /**
+     * Finishes the digest and returns the hash.
+     *
+     * @param digest Message digest
+     * @return Hash as lower-case hex string
+     */
+    public String toHex(final MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,205 @@
+package dev.svero.playground.varuna.utils;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Holds the settings used by {@link HttpUtils} when creating its HTTP client. Settings of
+ * the JDK which apply to all clients of the process are set with
+ * {@link HttpUtils#configureProcessSettings(int, int)}.
+ *
+ * @author Sven Roeseler
+ */
+public class HttpClientSettings {
+    /**
+     * Compression of request bodies.
+     */
+    public enum Compression {
+        /**
+         * Request bodies are sent uncompressed.
+         */
+        OFF,
+        /**
+         * Request bodies above the threshold are always sent gzip-compressed.
+         */
+        GZIP,
+        /**
+         * Request bodies above the threshold are sent gzip-compressed to servers which have
+         * advertised gzip support in an Accept-Encoding response header (RFC 7694).
+         */
+        AUTO
+    }
+
+    private Duration connectTimeout = Duration.ofSeconds(10);
+    private Duration requestTimeout = Duration.ofMinutes(5);
+    private boolean http2Enabled = true;
+    private int maxThreads = 4;
+    private int maxAttempts = 3;
+    private Duration initialRetryDelay = Duration.ofMillis(500);
+    private Duration maxRetryDelay = Duration.ofSeconds(30);
+    private int circuitBreakerFailureThreshold = 5;
+    private Duration circuitBreakerOpenDuration = Duration.ofSeconds(30);
+    private Compression requestCompression = Compression.OFF;
+    private long compressionThreshold = 64 * 1024;
+    private boolean acceptCompressedResponses = true;
+    private List<String> tlsProtocols = List.of("TLSv1.3", "TLSv1.2");
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        if (connectTimeout == null || connectTimeout.isNegative() || connectTimeout.isZero()) {
+            throw new IllegalArgumentException("connectTimeout must be positive");
+        }
+
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+        if (requestTimeout == null || requestTimeout.isNegative() || requestTimeout.isZero()) {
+            throw new IllegalArgumentException("requestTimeout must be positive");
+        }
+
+        this.requestTimeout = requestTimeout;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads may not be lower than 1");
+        }
+
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Returns the maximum number of attempts for a request including the first one.
+     *
+     * @return Maximum number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts may not be lower than 1");
+        }
+
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Duration getInitialRetryDelay() {
+        return initialRetryDelay;
+    }
+
+    public void setInitialRetryDelay(Duration initialRetryDelay) {
+        if (initialRetryDelay == null || initialRetryDelay.isNegative()) {
+            throw new IllegalArgumentException("initialRetryDelay may not be null or negative");
+        }
+
+        this.initialRetryDelay = initialRetryDelay;
+    }
+
+    public Duration getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public void setMaxRetryDelay(Duration maxRetryDelay) {
+        if (maxRetryDelay == null || maxRetryDelay.isNegative()) {
+            throw new IllegalArgumentException("maxRetryDelay may not be null or negative");
+        }
+
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        if (circuitBreakerFailureThreshold < 1) {
+            throw new IllegalArgumentException("circuitBreakerFailureThreshold may not be lower than 1");
+        }
+
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public Duration getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public void setCircuitBreakerOpenDuration(Duration circuitBreakerOpenDuration) {
+        if (circuitBreakerOpenDuration == null || circuitBreakerOpenDuration.isNegative()) {
+            throw new IllegalArgumentException("circuitBreakerOpenDuration may not be null or negative");
+        }
+
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    public Compression getRequestCompression() {
+        return requestCompression;
+    }
+
+    public void setRequestCompression(Compression requestCompression) {
+        if (requestCompression == null) {
+            throw new IllegalArgumentException("requestCompression may not be null");
+        }
+
+        this.requestCompression = requestCompression;
+    }
+
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(long compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException("compressionThreshold may not be negative");
+        }
+
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isAcceptCompressedResponses() {
+        return acceptCompressedResponses;
+    }
+
+    public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+        this.acceptCompressedResponses = acceptCompressedResponses;
+    }
+
+    public List<String> getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    /**
+     * Sets the TLS protocols enabled for connections, in order of preference. Protocols not
+     * supported by the runtime are ignored.
+     *
+     * @param tlsProtocols Protocol names (e.g. TLSv1.3)
+     */
+    public void setTlsProtocols(List<String> tlsProtocols) {
+        if (tlsProtocols == null || tlsProtocols.isEmpty()) {
+            throw new IllegalArgumentException("tlsProtocols may not be null or empty");
+        }
+
+        this.tlsProtocols = List.copyOf(tlsProtocols);
+    }
+}
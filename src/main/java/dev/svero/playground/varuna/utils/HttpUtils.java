@@ -1,26 +1,44 @@
 package dev.svero.playground.varuna.utils;
 
 import com.google.gson.JsonObject;
+import dev.svero.playground.varuna.exceptions.HttpStatusException;
+import dev.svero.playground.varuna.metrics.MetricsRegistry;
+import dev.svero.playground.varuna.models.PreparedConfiguration;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implements methods for performing HTTP requests.
@@ -28,12 +46,26 @@ import java.util.Random;
  * @author Sven Roeseler
  */
 @SuppressWarnings("unused")
-public class HttpUtils {
+public class HttpUtils implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpUtils.class);
 
     private static final Charset CHARSET = StandardCharsets.UTF_8;
 
+    private static final String PROPERTY_KEEP_ALIVE_TIMEOUT = "jdk.httpclient.keepalive.timeout";
+    private static final String PROPERTY_CONNECTION_POOL_SIZE = "jdk.httpclient.connectionPoolSize";
+    private static final String PROPERTY_SESSION_TICKETS = "jdk.tls.client.enableSessionTicketExtension";
+    private static final AtomicBoolean PROCESS_SETTINGS_CONFIGURED = new AtomicBoolean();
+
     private final SSLContext sslContext;
+    private final HttpClientSettings settings;
+    private final ExecutorService executor;
+    private final HttpClient client;
+    private final RetryPolicy retryPolicy;
+    private final Map<String, Duration> requestTimeouts = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> compressionSupport = new ConcurrentHashMap<>();
+
+    private final MetricsRegistry metricsRegistry;
 
     /**
      * Creates a new instance.
@@ -48,7 +80,140 @@ public class HttpUtils {
      * @param sslContext SSL context.
      */
     public HttpUtils(SSLContext sslContext) {
+        this(sslContext, new HttpClientSettings());
+    }
+
+    /**
+     * Creates a new instance using the specified SSL context and client settings. The HTTP client
+     * is created once and shared by all requests, so connections are kept alive and reused.
+     *
+     * @param sslContext SSL context (may be null)
+     * @param settings Settings for the HTTP client
+     */
+    public HttpUtils(SSLContext sslContext, HttpClientSettings settings) {
+        this(sslContext, settings, new MetricsRegistry());
+    }
+
+    /**
+     * Creates a new instance using the specified SSL context, client settings and metrics
+     * registry. Requests, transferred bytes, errors and the latency of upload, server
+     * processing and download are recorded in the registry.
+     *
+     * @param sslContext SSL context (may be null)
+     * @param settings Settings for the HTTP client
+     * @param metricsRegistry Registry for the metrics
+     */
+    public HttpUtils(SSLContext sslContext, HttpClientSettings settings, MetricsRegistry metricsRegistry) {
+        if (settings == null) {
+            throw new IllegalArgumentException("settings may not be null");
+        }
+
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("metricsRegistry may not be null");
+        }
+
         this.sslContext = sslContext;
+        this.settings = settings;
+        this.metricsRegistry = metricsRegistry;
+        this.executor = Executors.newFixedThreadPool(settings.getMaxThreads(), new HttpThreadFactory());
+        this.client = createHttpClient();
+        this.retryPolicy = new RetryPolicy(settings.getMaxAttempts(), settings.getInitialRetryDelay(),
+                settings.getMaxRetryDelay());
+
+        metricsRegistry.gauge("http.circuitBreaker.rejected", this::getRejectedCount);
+    }
+
+    /**
+     * Returns the settings used for the HTTP client.
+     *
+     * @return Client settings
+     */
+    public HttpClientSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Sets the timeout for requests to URLs starting with the specified prefix. If several
+     * prefixes match, the longest one wins; URLs without matching prefix use the request
+     * timeout from the settings.
+     *
+     * @param urlPrefix Prefix of the URLs (e.g. the base URL of a service)
+     * @param timeout Request timeout
+     */
+    public void setRequestTimeout(final String urlPrefix, final Duration timeout) {
+        if (StringUtils.isBlank(urlPrefix)) {
+            throw new IllegalArgumentException("urlPrefix may not be blank");
+        }
+
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+
+        requestTimeouts.put(urlPrefix, timeout);
+    }
+
+    /**
+     * Returns the number of retried requests.
+     *
+     * @return Number of retries
+     */
+    public long getRetryCount() {
+        return metricsRegistry.counter("http.retries").sum();
+    }
+
+    /**
+     * Returns the number of requests that timed out.
+     *
+     * @return Number of timeouts
+     */
+    public long getTimeoutCount() {
+        return metricsRegistry.counter("http.timeouts").sum();
+    }
+
+    /**
+     * Returns the registry with the metrics of this instance.
+     *
+     * @return Metrics registry
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Returns the number of requests rejected by open circuit breakers.
+     *
+     * @return Number of rejected requests
+     */
+    public long getRejectedCount() {
+        return circuitBreakers.values().stream().mapToLong(CircuitBreaker::getRejectedCount).sum();
+    }
+
+    /**
+     * Returns the circuit breakers per server (host and port).
+     *
+     * @return Map with the circuit breakers
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Map.copyOf(circuitBreakers);
+    }
+
+    /**
+     * Releases the threads used by the HTTP client. Requests that are still in progress
+     * are given a short time to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOGGER.warn("HTTP client executor did not terminate in time");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -64,7 +229,11 @@ public class HttpUtils {
             throw new IllegalArgumentException("url may not be blank");
         }
 
-        HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(getRequestTimeout(url))
+                .GET()
+                .build();
 
         return processRequestWithTextResponse(request);
     }
@@ -81,16 +250,35 @@ public class HttpUtils {
      */
     public String postRequest(final String url, final String requestData)
             throws IOException, InterruptedException, URISyntaxException {
+        return postRequest(url, requestData, true);
+    }
+
+    /**
+     * Performs a POST request to the specified URL using the specified data as request body.
+     * A request which is not repeatable (e.g. because it contains a one-time token) is only
+     * retried if it could not be sent at all.
+     *
+     * @param url         Target url for request
+     * @param requestData Data for request body
+     * @param repeatable  True if the request may be sent again after it possibly reached the server
+     * @return Server response as string
+     * @throws IOException          If an I/O error occurred
+     * @throws InterruptedException If the request was interrupted before the response was received
+     * @throws URISyntaxException   If the specified URL is invalid
+     */
+    public String postRequest(final String url, final String requestData, boolean repeatable)
+            throws IOException, InterruptedException, URISyntaxException {
         boolean hasBody = StringUtils.isNotBlank(requestData);
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(new URI(url))
+                .timeout(getRequestTimeout(url))
                 .headers("Content-Type", "application/x-www-form-urlencoded")
                 .POST(hasBody ? HttpRequest.BodyPublishers.ofString(requestData)
                         : HttpRequest.BodyPublishers.noBody())
                 .build();
 
-        return processRequestWithTextResponse(request);
+        return processRequestWithTextResponse(request, repeatable);
     }
 
     /**
@@ -117,6 +305,89 @@ public class HttpUtils {
      */
     public byte[] postMultipartRequest(final String url, Map<Object, Object> requestData, Map<String, String> headers)
             throws IOException, InterruptedException {
+        return sendMultipartRequest(url, requestData, headers, this::processRequestWithBinaryResponse);
+    }
+
+    /**
+     * Performs a multipart POST request to the specified URL and streams the answer into the
+     * specified file. The response is written to a temporary file first which is moved to the
+     * target when the download has completed.
+     *
+     * @param url         Target URL for the request
+     * @param requestData Multipart message as request data
+     * @param headers     Optional map with addional request headers
+     * @param target      File for the response
+     * @return Path of the written file
+     * @throws IOException If something went wrong
+     */
+    public Path postMultipartRequest(final String url, Map<Object, Object> requestData, Map<String, String> headers,
+                                     final Path target) throws IOException, InterruptedException {
+        return sendMultipartRequest(url, requestData, headers,
+                request -> processRequestWithFileResponse(request, target));
+    }
+
+    /**
+     * Performs a multipart POST request to the specified URL and hands the answer to the
+     * specified body handler.
+     *
+     * @param url         Target URL for the request
+     * @param requestData Multipart message as request data
+     * @param headers     Optional map with addional request headers
+     * @param bodyHandler Handler for the response body
+     * @param <T>         Type of the response body
+     * @return Response body as provided by the handler
+     * @throws IOException If something went wrong
+     */
+    public <T> T postMultipartRequest(final String url, Map<Object, Object> requestData, Map<String, String> headers,
+                                      final HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        return sendMultipartRequest(url, requestData, headers, request -> processRequest(request, bodyHandler));
+    }
+
+    /**
+     * Creates a multipart POST request and hands it to the processor. If the body was sent
+     * compressed and the server answered with 415 (Unsupported Media Type), the server is
+     * remembered as not supporting compression and the request is repeated uncompressed.
+     *
+     * @param url         Target URL for the request
+     * @param requestData Multipart message as request data
+     * @param headers     Optional map with addional request headers
+     * @param processor   Sends the request and processes the response
+     * @param <R>         Type of the result
+     * @return Result of the processor
+     * @throws IOException If something went wrong
+     */
+    private <R> R sendMultipartRequest(final String url, Map<Object, Object> requestData, Map<String, String> headers,
+                                       final RequestProcessor<R> processor) throws IOException, InterruptedException {
+        HttpRequest request = buildMultipartRequest(url, requestData, headers, true);
+
+        try {
+            return processor.process(request);
+        } catch (HttpStatusException ex) {
+            if (ex.getStatusCode() != 415 || request.headers().firstValue("Content-Encoding").isEmpty()) {
+                throw ex;
+            }
+
+            LOGGER.info("{} does not accept compressed requests, sending uncompressed", request.uri().getAuthority());
+            compressionSupport.put(getServerKey(request.uri()), Boolean.FALSE);
+
+            return processor.process(buildMultipartRequest(url, requestData, headers, false));
+        }
+    }
+
+    /**
+     * Creates a multipart POST request.
+     *
+     * @param url         Target URL for the request
+     * @param requestData Multipart message as request data
+     * @param headers     Optional map with addional request headers
+     * @param compressionAllowed True if the body may be compressed (depending on the settings)
+     * @return Request instance
+     * @throws IOException If the request body could not be created
+     */
+    private HttpRequest buildMultipartRequest(final String url, Map<Object, Object> requestData,
+                                              Map<String, String> headers, boolean compressionAllowed)
+            throws IOException {
         if (StringUtils.isBlank(url)) {
             throw new IllegalArgumentException("url may not be blank");
         }
@@ -125,11 +396,14 @@ public class HttpUtils {
             throw new IllegalArgumentException("data may not be null or empty");
         }
 
-        String boundary = new BigInteger(256, new Random()).toString();
+        String boundary = MultipartBodyPublisher.newBoundary();
         LOGGER.debug("Multipart boundary: {}", boundary);
 
+        final URI uri = URI.create(url);
+
         HttpRequest.Builder builder = HttpRequest.newBuilder();
-        builder.uri(URI.create(url));
+        builder.uri(uri);
+        builder.timeout(getRequestTimeout(url));
         builder.header("Content-Type", "multipart/form-data;boundary=" + boundary);
 
         if (headers != null && !headers.isEmpty()) {
@@ -139,28 +413,211 @@ public class HttpUtils {
             }
         }
 
-        builder.POST(ofMimeMultipartData(requestData, boundary));
+        final long start = System.nanoTime();
+        final MultipartBodyPublisher body = ofMimeMultipartData(requestData, boundary);
+        metricsRegistry.histogram("multipart.build").recordSince(start);
 
-        HttpRequest request = builder.build();
+        if (compressionAllowed && shouldCompress(uri, body.contentLength())) {
+            metricsRegistry.counter("http.compressed.requests").increment();
+            metricsRegistry.counter("http.compressed.bytes.uncompressed").add(body.contentLength());
 
-        return processRequestWithBinaryResponse(request);
+            builder.header("Content-Encoding", GzipCompression.ENCODING);
+            builder.POST(HttpRequest.BodyPublishers.ofInputStream(
+                    () -> GzipCompression.compress(body.newInputStream())));
+        } else {
+            builder.POST(body);
+        }
+
+        return builder.build();
     }
 
     /**
-     * Creates a HTTP client.
+     * Sets the settings of the JDK HTTP client and TLS implementation which apply to the whole
+     * process: the keep-alive timeout and size of the connection pool and stateless TLS session
+     * tickets (which allow the resumption of TLS 1.3 sessions). The JDK reads them only once,
+     * when the first client is created, and uses them for every client of the process, so they
+     * cannot be set per instance. This method has to be called once at startup before any
+     * instance is created; later calls are ignored. Values set on the command line
+     * ({@code -Djdk.httpclient...}) take precedence.
+     *
+     * @param keepAliveTimeout Time in seconds an idle connection is kept open for reuse
+     * @param connectionPoolSize Maximum number of idle connections per client, 0 for unlimited
+     */
+    public static void configureProcessSettings(int keepAliveTimeout, int connectionPoolSize) {
+        if (keepAliveTimeout < 1) {
+            throw new IllegalArgumentException("keepAliveTimeout may not be lower than 1");
+        }
+
+        if (connectionPoolSize < 0) {
+            throw new IllegalArgumentException("connectionPoolSize may not be negative");
+        }
+
+        if (!PROCESS_SETTINGS_CONFIGURED.compareAndSet(false, true)) {
+            LOGGER.warn("Process-wide HTTP client settings already configured, ignoring the new values");
+            return;
+        }
+
+        setSystemPropertyIfAbsent(PROPERTY_KEEP_ALIVE_TIMEOUT, String.valueOf(keepAliveTimeout));
+        if (connectionPoolSize > 0) {
+            setSystemPropertyIfAbsent(PROPERTY_CONNECTION_POOL_SIZE, String.valueOf(connectionPoolSize));
+        }
+        setSystemPropertyIfAbsent(PROPERTY_SESSION_TICKETS, "true");
+    }
+
+    /**
+     * Creates the shared HTTP client.
      *
      * @return HTTP client.
      */
     private HttpClient createHttpClient() {
-        HttpClient client;
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .connectTimeout(settings.getConnectTimeout())
+                .version(settings.isHttp2Enabled() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .executor(executor);
 
-        if (sslContext == null) {
-            client = HttpClient.newBuilder().build();
+        if (sslContext != null) {
+            builder.sslContext(sslContext);
+            builder.sslParameters(createSSLParameters());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates the SSL parameters with the configured protocols supported by the context.
+     *
+     * @return SSL parameters
+     */
+    private SSLParameters createSSLParameters() {
+        SSLParameters parameters = sslContext.getDefaultSSLParameters();
+        List<String> supported = Arrays.asList(sslContext.getSupportedSSLParameters().getProtocols());
+        String[] protocols = settings.getTlsProtocols().stream().filter(supported::contains).toArray(String[]::new);
+
+        if (protocols.length == 0) {
+            LOGGER.warn("None of the TLS protocols {} is supported, using the defaults", settings.getTlsProtocols());
         } else {
-            client = HttpClient.newBuilder().sslContext(sslContext).build();
+            parameters.setProtocols(protocols);
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Opens connections to the server of the specified URL, so the first requests do not pay
+     * for the TCP and TLS handshakes. The specified number of HEAD requests is sent
+     * concurrently; with HTTP/1.1 each uses its own connection, which stays in the connection
+     * pool afterwards. The status codes of the responses are ignored.
+     *
+     * @param url URL of the server
+     * @param connections Number of connections to open
+     * @param timeout Maximum time for the warm-up
+     * @return Number of requests that received a response
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public int warmUp(final String url, int connections, final Duration timeout) throws InterruptedException {
+        if (StringUtils.isBlank(url)) {
+            throw new IllegalArgumentException("url may not be blank");
+        }
+
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections may not be lower than 1");
+        }
+
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(new URI(url))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(timeout)
+                    .build();
+        } catch (URISyntaxException ex) {
+            throw new IllegalArgumentException("Invalid URL: " + url, ex);
+        }
+
+        final long start = System.nanoTime();
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+
+        try {
+            CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            LOGGER.debug("Warm-up of {} not completed", url, ex);
+        }
+
+        int completed = (int) responses.stream()
+                .filter(response -> response.isDone() && !response.isCompletedExceptionally())
+                .count();
+        responses.forEach(response -> response.cancel(true));
+
+        LOGGER.info("Warmed up {} of {} connections to {} in {} ms", completed, connections,
+                request.uri().getAuthority(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+
+        return completed;
+    }
+
+    /**
+     * Checks whether a request body of the specified size should be sent compressed.
+     *
+     * @param uri Target of the request
+     * @param contentLength Size of the uncompressed body
+     * @return True if the body should be compressed
+     */
+    private boolean shouldCompress(final URI uri, long contentLength) {
+        if (settings.getRequestCompression() == HttpClientSettings.Compression.OFF
+                || contentLength < settings.getCompressionThreshold()) {
+            return false;
         }
 
-        return client;
+        Boolean supported = compressionSupport.get(getServerKey(uri));
+
+        return settings.getRequestCompression() == HttpClientSettings.Compression.GZIP
+                ? !Boolean.FALSE.equals(supported)
+                : Boolean.TRUE.equals(supported);
+    }
+
+    /**
+     * Remembers whether the server supports compressed request bodies if the response
+     * contains an Accept-Encoding header (RFC 7694).
+     *
+     * @param uri Target of the request
+     * @param response Response of the server
+     */
+    private void updateCompressionSupport(final URI uri, final HttpResponse<?> response) {
+        response.headers().firstValue("Accept-Encoding").ifPresent(value ->
+                compressionSupport.put(getServerKey(uri), GzipCompression.containsGzip(value)));
+    }
+
+    /**
+     * Returns a copy of the request which announces that gzip-compressed responses are
+     * accepted, if enabled in the settings.
+     *
+     * @param request Original request
+     * @return Request with Accept-Encoding header
+     */
+    private HttpRequest acceptCompressedResponse(final HttpRequest request) {
+        if (!settings.isAcceptCompressedResponses() || request.headers().firstValue("Accept-Encoding").isPresent()) {
+            return request;
+        }
+
+        return HttpRequest.newBuilder(request, (name, value) -> true)
+                .header("Accept-Encoding", GzipCompression.ENCODING)
+                .build();
+    }
+
+    private static boolean isCompressed(final HttpResponse<?> response) {
+        return GzipCompression.containsGzip(response.headers().firstValue("Content-Encoding").orElse(null));
+    }
+
+    private static void setSystemPropertyIfAbsent(final String key, final String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
     }
 
     /**
@@ -172,23 +629,36 @@ public class HttpUtils {
      * @throws InterruptedException If the request was interrupted before the response was received
      */
     public String processRequestWithTextResponse(HttpRequest request) throws IOException, InterruptedException {
+        return processRequestWithTextResponse(request, true);
+    }
+
+    /**
+     * Performs the specified request and returns the response as string if the status code was 200.
+     *
+     * @param request    Request to perform
+     * @param repeatable True if the request may be sent again after it possibly reached the server
+     * @return Response body as string
+     * @throws IOException          If an I/O error happened
+     * @throws InterruptedException If the request was interrupted before the response was received
+     */
+    public String processRequestWithTextResponse(HttpRequest request, boolean repeatable)
+            throws IOException, InterruptedException {
         if (request == null) {
             throw new IllegalArgumentException("request may not be null");
         }
 
-        HttpClient client = createHttpClient();
-
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<byte[]> response = send(acceptCompressedResponse(request),
+                HttpResponse.BodyHandlers.ofByteArray(), repeatable);
 
-        String result;
+        byte[] body = isCompressed(response) ? GzipCompression.decompress(response.body()) : response.body();
+        String result = new String(body, getCharset(response));
 
-        if (response.statusCode() == 200) {
-            result = response.body();
-        } else {
+        if (response.statusCode() != 200) {
             LOGGER.error("Unexpected response received:\n* Status Code: {}\n* Headers: {}\n* Body: {}",
-                    response.statusCode(), response.headers().toString(), response.body());
+                    response.statusCode(), response.headers().toString(), result);
 
-            throw new RuntimeException("Unexpected status code received while processing POST request");
+            throw new HttpStatusException(response.statusCode(),
+                    "Unexpected status code received while processing POST request");
         }
 
         if (LOGGER.isDebugEnabled()) {
@@ -211,30 +681,322 @@ public class HttpUtils {
             throw new IllegalArgumentException("request may not be null");
         }
 
-        HttpClient client = createHttpClient();
+        HttpResponse<byte[]> response = exchange(acceptCompressedResponse(request),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        return isCompressed(response) ? GzipCompression.decompress(response.body()) : response.body();
+    }
+
+    /**
+     * Performs a HTTP request which expects a binary response and streams it into the specified
+     * file. The data is written to a temporary file in the same directory which is atomically
+     * moved to the target on success and removed otherwise.
+     *
+     * @param request Http request to perform
+     * @param target  File for the response
+     * @return Path of the written file
+     * @throws IOException If an I/O error happens
+     * @throws InterruptedException If the request is interrupted
+     */
+    public Path processRequestWithFileResponse(HttpRequest request, final Path target)
+            throws IOException, InterruptedException {
+        if (target == null) {
+            throw new IllegalArgumentException("target may not be null");
+        }
+
+        if (request == null) {
+            throw new IllegalArgumentException("request may not be null");
+        }
+
+        Path directory = target.toAbsolutePath().getParent();
+        Path temporaryFile = Files.createTempFile(directory, "." + target.getFileName(), ".part");
+        Path decompressedFile = null;
+
+        try {
+            // The file is truncated, so a retried request does not leave data of an earlier attempt behind
+            HttpResponse<Path> response = exchange(acceptCompressedResponse(request),
+                    HttpResponse.BodyHandlers.ofFile(temporaryFile, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+
+            if (isCompressed(response)) {
+                decompressedFile = Files.createTempFile(directory, "." + target.getFileName(), ".part");
+                GzipCompression.decompress(temporaryFile, decompressedFile);
+                moveAtomically(decompressedFile, target);
+            } else {
+                moveAtomically(temporaryFile, target);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+
+            if (decompressedFile != null) {
+                Files.deleteIfExists(decompressedFile);
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Performs a HTTP request and hands the response body to the specified handler if the
+     * status code was 200. Bodies of other responses are discarded.
+     *
+     * @param request     Http request to perform
+     * @param bodyHandler Handler for the response body
+     * @param <T>         Type of the response body
+     * @return Response body as provided by the handler
+     * @throws IOException If an I/O error happens
+     * @throws InterruptedException If the request is interrupted
+     */
+    public <T> T processRequest(HttpRequest request, final HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        if (request == null) {
+            throw new IllegalArgumentException("request may not be null");
+        }
+
+        if (bodyHandler == null) {
+            throw new IllegalArgumentException("bodyHandler may not be null");
+        }
 
-        HttpResponse<byte[]> response = client.send(request, responseInfo -> HttpResponse.BodySubscribers.ofByteArray());
+        return exchange(request, bodyHandler).body();
+    }
+
+    /**
+     * Sends the request and hands the response body to the handler if the status code was
+     * 200, otherwise the body is discarded and an exception is thrown.
+     *
+     * @param request     Http request to perform
+     * @param bodyHandler Handler for the response body
+     * @param <T>         Type of the response body
+     * @return Response with status code 200
+     * @throws IOException If an I/O error happens
+     * @throws InterruptedException If the request is interrupted
+     */
+    private <T> HttpResponse<T> exchange(HttpRequest request, final HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        HttpResponse<T> response = send(request, responseInfo -> responseInfo.statusCode() == 200
+                ? bodyHandler.apply(responseInfo)
+                : HttpResponse.BodySubscribers.replacing(null));
 
         int statusCode = response.statusCode();
 
         if (statusCode != 200) {
             LOGGER.error("Unexpected status code: {}", statusCode);
-            throw new IllegalStateException("The server returned an unexpected status code of " + statusCode);
+            throw new HttpStatusException(statusCode, "The server returned an unexpected status code of " + statusCode);
         }
 
-        return response.body();
+        return response;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, final HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        return send(request, bodyHandler, true);
     }
 
     /**
-     * <a href="https://stackoverflow.com/questions/56481475/how-to-define-multiple-parameters-for-a-post-request-using-java-11-http-client">Source</a>
+     * Sends the request and retries it on transient failures as defined by the retry policy.
+     * Requests to servers whose circuit breaker is open are rejected without being sent. A
+     * request which is not repeatable is only retried if the connection could not be
+     * established, so it never reaches the server twice.
+     *
+     * @param request     Http request to perform
+     * @param bodyHandler Handler for the response body
+     * @param repeatable  True if the request may be sent again after it possibly reached the server
+     * @param <T>         Type of the response body
+     * @return Response of the last attempt
+     * @throws IOException If an I/O error happens in the last attempt
+     * @throws InterruptedException If the request is interrupted
+     */
+    private <T> HttpResponse<T> send(HttpRequest request, final HttpResponse.BodyHandler<T> bodyHandler,
+                                     boolean repeatable) throws IOException, InterruptedException {
+        CircuitBreaker circuitBreaker = getCircuitBreaker(request.uri());
+        RequestCancellation cancellation = RequestCancellation.current();
+        int attempts = 0;
+
+        while (true) {
+            if (cancellation != null) {
+                cancellation.check();
+            }
+
+            circuitBreaker.acquirePermission();
+            attempts++;
+
+            HttpResponse<T> response;
+            ExchangeMetrics exchangeMetrics = new ExchangeMetrics(metricsRegistry);
+            final long start = System.nanoTime();
+
+            metricsRegistry.counter("http.requests").increment();
+
+            // Every exit reports an outcome, otherwise a trial request would leave the circuit half open
+            boolean reported = false;
+
+            try {
+                response = cancellation != null
+                        ? sendCancellable(exchangeMetrics.meter(request), exchangeMetrics.meter(bodyHandler),
+                                cancellation)
+                        : client.send(exchangeMetrics.meter(request), exchangeMetrics.meter(bodyHandler));
+
+                int statusCode = response.statusCode();
+                if (retryPolicy.isRetryable(statusCode) || statusCode >= 500) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+
+                reported = true;
+            } catch (IOException ex) {
+                metricsRegistry.counter("http.errors.io").increment();
+
+                if (ex instanceof HttpTimeoutException) {
+                    metricsRegistry.counter("http.timeouts").increment();
+                }
+
+                circuitBreaker.onFailure();
+                reported = true;
+
+                boolean retryable = repeatable ? retryPolicy.isRetryable(ex) : retryPolicy.isNotSent(ex);
+                if (!retryable || !retryPolicy.canRetry(attempts)) {
+                    throw ex;
+                }
+
+                waitBeforeRetry(request, attempts, null, ex.toString());
+                continue;
+            } finally {
+                if (!reported) {
+                    // Interrupted or failed without a response
+                    circuitBreaker.onIgnored();
+                }
+            }
+
+            metricsRegistry.histogram("http.request").recordSince(start);
+            updateCompressionSupport(request.uri(), response);
+
+            int statusCode = response.statusCode();
+            if (statusCode < 200 || statusCode >= 300) {
+                metricsRegistry.counter("http.errors." + statusCode).increment();
+            }
+
+            if (repeatable && retryPolicy.isRetryable(statusCode) && retryPolicy.canRetry(attempts)) {
+                waitBeforeRetry(request, attempts, response, "status code " + statusCode);
+                continue;
+            }
+
+            return response;
+        }
+    }
+
+    /**
+     * Sends the request asynchronously and waits for the response. The exchange is cancelled
+     * (without interrupting the waiting thread) when the cancellation is triggered.
+     */
+    private <T> HttpResponse<T> sendCancellable(HttpRequest request, final HttpResponse.BodyHandler<T> bodyHandler,
+                                                final RequestCancellation cancellation)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<T>> exchange = client.sendAsync(request, bodyHandler);
+        cancellation.register(exchange);
+
+        try {
+            return exchange.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+
+            throw new IOException(ex.getCause());
+        } catch (InterruptedException ex) {
+            exchange.cancel(true);
+            throw ex;
+        }
+    }
+
+    private void waitBeforeRetry(final HttpRequest request, int attempts, final HttpResponse<?> response,
+                                 final String reason) throws InterruptedException {
+        Duration delay = retryPolicy.getDelay(attempts, response == null ? null : response.headers());
+        metricsRegistry.counter("http.retries").increment();
+
+        LOGGER.warn("Request to {} failed ({}), retrying in {} ms (attempt {} of {})", request.uri(), reason,
+                delay.toMillis(), attempts + 1, retryPolicy.getMaxAttempts());
+
+        Thread.sleep(delay.toMillis());
+    }
+
+    private CircuitBreaker getCircuitBreaker(final URI uri) {
+        return circuitBreakers.computeIfAbsent(getServerKey(uri), name -> new CircuitBreaker(name,
+                settings.getCircuitBreakerFailureThreshold(), settings.getCircuitBreakerOpenDuration()));
+    }
+
+    private static String getServerKey(final URI uri) {
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+
+    /**
+     * Returns the charset of the response body from the Content-Type header.
+     *
+     * @param response Response
+     * @return Charset of the response, UTF-8 if not specified or not supported
+     */
+    private static Charset getCharset(final HttpResponse<?> response) {
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+
+            if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                try {
+                    return Charset.forName(trimmed.substring(8).replace("\"", ""));
+                } catch (IllegalArgumentException ex) {
+                    LOGGER.debug("Unsupported charset in {}", contentType);
+                }
+            }
+        }
+
+        return CHARSET;
+    }
+
+    private Duration getRequestTimeout(final String url) {
+        Duration timeout = settings.getRequestTimeout();
+        int matchedLength = -1;
+
+        for (Map.Entry<String, Duration> entry : requestTimeouts.entrySet()) {
+            if (url.startsWith(entry.getKey()) && entry.getKey().length() > matchedLength) {
+                timeout = entry.getValue();
+                matchedLength = entry.getKey().length();
+            }
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Moves the source file to the target, atomically if supported by the file system.
+     *
+     * @param source Source file
+     * @param target Target file
+     * @throws IOException If the file could not be moved
+     */
+    private static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Creates a multipart body publisher for the specified data. Files are streamed from disk
+     * when the request is sent, so they are never loaded into memory completely. Prepared
+     * configurations are sent as JSON part using their cached bytes.
      *
      * @param data     Map with data
      * @param boundary Boundary for message parts
      * @return BodyPublisher instance
      * @throws IOException if something went wrong
      */
-    public HttpRequest.BodyPublisher ofMimeMultipartData(Map<Object, Object> data,
-                                                         String boundary) throws IOException {
+    public MultipartBodyPublisher ofMimeMultipartData(Map<Object, Object> data,
+                                                      String boundary) throws IOException {
         if (data == null || data.isEmpty()) {
             throw new IllegalArgumentException("data may not be null or empty");
         }
@@ -243,43 +1005,51 @@ public class HttpUtils {
             throw new IllegalArgumentException("boundary may not be null or empty");
         }
 
-        // Result request body
-        List<byte[]> byteArrays = new ArrayList<>();
+        MultipartBodyPublisher.Builder builder = MultipartBodyPublisher.newBuilder(boundary);
 
-        // Separator with boundary
-        byte[] separator = ("--" + boundary + "\r\nContent-Disposition: form-data; name=").getBytes(CHARSET);
-
-        // Iterating over data parts
+        // If value is type of Path (file) append content type with file name and file content, otherwise simply append key=value
         for (Map.Entry<Object, Object> entry : data.entrySet()) {
+            final String name = String.valueOf(entry.getKey());
 
-            // Opening boundary
-            byteArrays.add(separator);
-
-            // If value is type of Path (file) append content type with file name and file binaries, otherwise simply append key=value
             if (entry.getValue() instanceof Path path) {
-                String mimeType = Files.probeContentType(path);
-
-                byteArrays.add(("\"" + entry.getKey() + "\"; filename=\"" + path.getFileName()
-                        + "\"\r\nContent-Type: " + mimeType + "\r\n\r\n").getBytes(CHARSET));
-                byteArrays.add(Files.readAllBytes(path));
-                byteArrays.add("\r\n".getBytes(CHARSET));
+                builder.addFilePart(name, path, MimeTypeCache.getContentType(path));
+            } else if (entry.getValue() instanceof PreparedConfiguration configuration) {
+                builder.addJsonPart(name, configuration.getJsonBytes());
             } else if (entry.getValue() instanceof JsonObject jsonObject) {
-                String mimeType = "application/json";
-                String json = jsonObject.toString();
-
-                byteArrays.add(("\"" + entry.getKey() + "\"" + "\r\nContent-Type:" + mimeType + "\r\n\r\n"
-                        + json + "\r\n")
-                        .getBytes(CHARSET));
+                builder.addJsonPart(name, jsonObject.toString());
             } else {
-                byteArrays.add(("\"" + entry.getKey() + "\"\r\n\r\n" + entry.getValue() + "\r\n")
-                        .getBytes(CHARSET));
+                builder.addTextPart(name, entry.getValue());
             }
         }
 
-        // Closing boundary
-        byteArrays.add(("--" + boundary + "--").getBytes(CHARSET));
+        return builder.build();
+    }
+
+    /**
+     * Sends a request and processes the response.
+     *
+     * @param <R> Type of the result
+     */
+    @FunctionalInterface
+    private interface RequestProcessor<R> {
+        R process(HttpRequest request) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Creates daemon threads with a recognizable name for the HTTP client.
+     */
+    private static class HttpThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
 
-        // Serializing as byte array
-        return HttpRequest.BodyPublishers.ofByteArrays(byteArrays);
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    "http-client-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -3,8 +3,10 @@ package dev.svero.playground.varuna.utils;
 import dev.svero.playground.varuna.exceptions.KeyStoreUtilsException;
 import org.apache.commons.lang3.StringUtils;
 
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.cert.CertificateException;
 
@@ -37,9 +39,9 @@ public class KeyStoreUtils {
 
         KeyStore keyStore;
 
-        try {
+        try (InputStream inputStream = Files.newInputStream(Path.of(keyStoreFilename))) {
             keyStore = KeyStore.getInstance(keyStoreType);
-            keyStore.load(new FileInputStream(keyStoreFilename), keyStorePassword.toCharArray());
+            keyStore.load(inputStream, keyStorePassword.toCharArray());
         } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
             throw new KeyStoreUtilsException("Could not create a KeyStore instance", e);
         }
@@ -0,0 +1,61 @@
+package dev.svero.playground.varuna.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the MIME types detected by {@link Files#probeContentType(Path)} per file extension,
+ * so the file type detectors are only consulted once per extension. Files without extension
+ * are probed every time because their type can only be detected from the content.
+ *
+ * @author Sven Roeseler
+ */
+final class MimeTypeCache {
+    /**
+     * Marker for extensions whose MIME type could not be detected.
+     */
+    private static final String UNKNOWN = "";
+
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    private MimeTypeCache() {
+    }
+
+    /**
+     * Returns the MIME type of the specified file.
+     *
+     * @param file File
+     * @return MIME type or null if it could not be detected
+     * @throws IOException If the file could not be probed
+     */
+    static String getContentType(final Path file) throws IOException {
+        String extension = getExtension(file);
+        if (extension == null) {
+            return Files.probeContentType(file);
+        }
+
+        String contentType = CACHE.get(extension);
+        if (contentType == null) {
+            contentType = Files.probeContentType(file);
+            CACHE.putIfAbsent(extension, contentType == null ? UNKNOWN : contentType);
+        }
+
+        return UNKNOWN.equals(contentType) ? null : contentType;
+    }
+
+    private static String getExtension(final Path file) {
+        Path fileName = file.getFileName();
+        if (fileName == null) {
+            return null;
+        }
+
+        String name = fileName.toString();
+        int index = name.lastIndexOf('.');
+
+        return index > 0 && index < name.length() - 1 ? name.substring(index + 1).toLowerCase(Locale.ROOT) : null;
+    }
+}
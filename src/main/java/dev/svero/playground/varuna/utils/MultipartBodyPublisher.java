@@ -0,0 +1,498 @@
+package dev.svero.playground.varuna.utils;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implements a body publisher for multipart/form-data requests which streams file parts
+ * from disk in fixed-size chunks. The memory used per request therefore does not depend
+ * on the size of the uploaded files. The content length is known in advance, so the
+ * request is not sent with chunked transfer encoding.
+ *
+ * <p>The publisher may be subscribed multiple times (e.g. when a request is retried); each
+ * subscription reads the files again.</p>
+ *
+ * @author Sven Roeseler
+ */
+public class MultipartBodyPublisher implements HttpRequest.BodyPublisher {
+    /**
+     * Default size of the chunks read from files.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    // Static fragments of the part headers, encoded once
+    private static final byte[] DASHES = "--".getBytes(CHARSET);
+    private static final byte[] CRLF = "\r\n".getBytes(CHARSET);
+    private static final byte[] DISPOSITION = "\r\nContent-Disposition: form-data; name=\"".getBytes(CHARSET);
+    private static final byte[] QUOTE = "\"".getBytes(CHARSET);
+    private static final byte[] FILENAME = "; filename=\"".getBytes(CHARSET);
+    private static final byte[] FILE_CONTENT_TYPE = "\"\r\nContent-Type: ".getBytes(CHARSET);
+    private static final byte[] OCTET_STREAM = "application/octet-stream".getBytes(CHARSET);
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(CHARSET);
+    private static final byte[] JSON_HEADER = "\r\nContent-Type:application/json\r\n\r\n".getBytes(CHARSET);
+    private static final byte[] TEXT_HEADER = HEADER_END;
+
+    private static final int INITIAL_BLOCK_SIZE = 512;
+    private static final String BOUNDARY_PREFIX = "varuna-";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final List<Part> parts;
+    private final long contentLength;
+    private final int chunkSize;
+
+    private MultipartBodyPublisher(List<Part> parts, int chunkSize) {
+        this.parts = Collections.unmodifiableList(parts);
+        this.chunkSize = chunkSize;
+
+        long length = 0;
+        for (Part part : parts) {
+            length += part.length();
+        }
+        this.contentLength = length;
+    }
+
+    /**
+     * Creates a builder for a multipart body using the specified boundary.
+     *
+     * @param boundary Boundary for message parts
+     * @return Builder instance
+     */
+    public static Builder newBuilder(final String boundary) {
+        return new Builder(boundary);
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Returns the body as stream. Files are opened when the stream reaches their part.
+     *
+     * @return Stream with the complete body
+     */
+    public InputStream newInputStream() {
+        Iterator<Part> iterator = parts.iterator();
+
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                Part part = iterator.next();
+
+                if (part instanceof BytesPart bytesPart) {
+                    return new ByteArrayInputStream(bytesPart.bytes(), 0, bytesPart.count());
+                }
+
+                return new FilePartInputStream(((FilePart) part).file());
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        PartSubscription subscription = new PartSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Creates a random boundary. The boundary consists of 32 hex digits (128 random bits)
+     * taken from the thread-local random generator, which is considerably cheaper than a
+     * shared or secure generator and good enough to avoid collisions with the content.
+     *
+     * @return Boundary for message parts
+     */
+    public static String newBoundary() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[BOUNDARY_PREFIX.length() + 32];
+        BOUNDARY_PREFIX.getChars(0, BOUNDARY_PREFIX.length(), chars, 0);
+
+        int index = BOUNDARY_PREFIX.length();
+        for (int i = 0; i < 2; i++) {
+            long bits = random.nextLong();
+            for (int j = 0; j < 16; j++) {
+                chars[index++] = HEX_DIGITS[(int) (bits & 0xF)];
+                bits >>>= 4;
+            }
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Builds the parts of a multipart body. Headers are encoded when the part is added,
+     * files are only read when the body is sent.
+     *
+     * <p>The static fragments of the part headers are encoded once and copied into a
+     * builder-local buffer, so no intermediate strings are created. Consecutive non-file
+     * content is collected into a single block which is emitted as one buffer.</p>
+     */
+    public static class Builder {
+        private final byte[] boundary;
+        private final List<Part> parts = new ArrayList<>();
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+        private byte[] pending;
+        private int pendingLength;
+
+        private Builder(final String boundary) {
+            if (StringUtils.isBlank(boundary)) {
+                throw new IllegalArgumentException("boundary may not be null or empty");
+            }
+
+            this.boundary = boundary.getBytes(CHARSET);
+        }
+
+        /**
+         * Sets the size of the chunks read from files.
+         *
+         * @param chunkSize Chunk size in bytes
+         * @return This builder
+         */
+        public Builder chunkSize(int chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize may not be lower than 1");
+            }
+
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Adds a file part. The content is streamed from disk when the request is sent.
+         *
+         * @param name Name of the form field
+         * @param file File to send
+         * @param mimeType MIME type of the file (application/octet-stream if null)
+         * @return This builder
+         * @throws IOException If the size of the file could not be determined
+         */
+        public Builder addFilePart(final String name, final Path file, final String mimeType) throws IOException {
+            if (file == null) {
+                throw new IllegalArgumentException("file may not be null");
+            }
+
+            long size = Files.size(file);
+
+            separator(name);
+            write(FILENAME);
+            write(file.getFileName().toString().getBytes(CHARSET));
+            write(FILE_CONTENT_TYPE);
+            write(mimeType == null ? OCTET_STREAM : mimeType.getBytes(CHARSET));
+            write(HEADER_END);
+            flush();
+
+            parts.add(new FilePart(file, size));
+            write(CRLF);
+
+            return this;
+        }
+
+        /**
+         * Adds a part with JSON content.
+         *
+         * @param name Name of the form field
+         * @param json JSON content
+         * @return This builder
+         */
+        public Builder addJsonPart(final String name, final String json) {
+            return addJsonPart(name, json.getBytes(CHARSET));
+        }
+
+        /**
+         * Adds a part with JSON content which is already encoded as UTF-8.
+         *
+         * @param name Name of the form field
+         * @param json JSON content (UTF-8)
+         * @return This builder
+         */
+        public Builder addJsonPart(final String name, final byte[] json) {
+            if (json == null) {
+                throw new IllegalArgumentException("json may not be null");
+            }
+
+            separator(name);
+            write(JSON_HEADER);
+            write(json);
+            write(CRLF);
+
+            return this;
+        }
+
+        /**
+         * Adds a simple text part.
+         *
+         * @param name Name of the form field
+         * @param value Value of the form field
+         * @return This builder
+         */
+        public Builder addTextPart(final String name, final Object value) {
+            separator(name);
+            write(TEXT_HEADER);
+            write(String.valueOf(value).getBytes(CHARSET));
+            write(CRLF);
+
+            return this;
+        }
+
+        /**
+         * Creates the publisher.
+         *
+         * @return Body publisher with all added parts
+         */
+        public MultipartBodyPublisher build() {
+            write(DASHES);
+            write(boundary);
+            write(DASHES);
+            flush();
+
+            return new MultipartBodyPublisher(new ArrayList<>(parts), chunkSize);
+        }
+
+        private void separator(final String name) {
+            if (StringUtils.isBlank(name)) {
+                throw new IllegalArgumentException("name may not be blank");
+            }
+
+            write(DASHES);
+            write(boundary);
+            write(DISPOSITION);
+            write(name.getBytes(CHARSET));
+            write(QUOTE);
+        }
+
+        private void write(final byte[] bytes) {
+            if (pending == null) {
+                pending = new byte[Math.max(INITIAL_BLOCK_SIZE, bytes.length)];
+            } else if (pendingLength + bytes.length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + bytes.length));
+            }
+
+            System.arraycopy(bytes, 0, pending, pendingLength, bytes.length);
+            pendingLength += bytes.length;
+        }
+
+        /**
+         * Hands the collected block over to a part; the next write starts a new block.
+         */
+        private void flush() {
+            if (pendingLength > 0) {
+                parts.add(new BytesPart(pending, pendingLength));
+                pending = null;
+                pendingLength = 0;
+            }
+        }
+    }
+
+    private interface Part {
+        long length();
+    }
+
+    private record BytesPart(byte[] bytes, int count) implements Part {
+        @Override
+        public long length() {
+            return count;
+        }
+    }
+
+    private record FilePart(Path file, long size) implements Part {
+        @Override
+        public long length() {
+            return size;
+        }
+    }
+
+    /**
+     * Opens the file on the first read, so only the file currently read is open.
+     */
+    private static final class FilePartInputStream extends InputStream {
+        private final Path file;
+        private InputStream delegate;
+
+        private FilePartInputStream(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return getDelegate().read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return getDelegate().read(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+
+        private InputStream getDelegate() throws IOException {
+            if (delegate == null) {
+                delegate = Files.newInputStream(file);
+            }
+
+            return delegate;
+        }
+    }
+
+    /**
+     * Emits the parts one buffer at a time as requested by the subscriber. Emission happens
+     * on the thread calling {@link #request(long)}; reentrant calls are serialized.
+     */
+    private final class PartSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private boolean done;
+        private int partIndex;
+        private FileChannel channel;
+        private long remaining;
+
+        private PartSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                drain();
+                subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+
+            do {
+                if (cancelled) {
+                    done = true;
+                    closeChannel();
+                } else {
+                    while (!done && !cancelled && demand.get() > 0) {
+                        ByteBuffer buffer;
+
+                        try {
+                            buffer = nextBuffer();
+                        } catch (IOException ex) {
+                            done = true;
+                            closeChannel();
+                            subscriber.onError(ex);
+                            break;
+                        }
+
+                        if (buffer == null) {
+                            done = true;
+                            subscriber.onComplete();
+                            break;
+                        }
+
+                        demand.decrementAndGet();
+                        subscriber.onNext(buffer);
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private ByteBuffer nextBuffer() throws IOException {
+            while (partIndex < parts.size()) {
+                Part part = parts.get(partIndex);
+
+                if (part instanceof BytesPart bytesPart) {
+                    partIndex++;
+                    return ByteBuffer.wrap(bytesPart.bytes(), 0, bytesPart.count()).asReadOnlyBuffer();
+                }
+
+                FilePart filePart = (FilePart) part;
+
+                if (channel == null) {
+                    channel = FileChannel.open(filePart.file(), StandardOpenOption.READ);
+                    remaining = filePart.size();
+                }
+
+                if (remaining > 0) {
+                    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, remaining));
+
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer) < 0) {
+                            throw new IOException("File was modified while sending: " + filePart.file());
+                        }
+                    }
+
+                    remaining -= buffer.capacity();
+                    return buffer.flip();
+                }
+
+                closeChannel();
+                partIndex++;
+            }
+
+            return null;
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Nothing to do, the file was only read
+                }
+
+                channel = null;
+            }
+        }
+    }
+}
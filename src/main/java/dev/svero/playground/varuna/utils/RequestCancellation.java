@@ -0,0 +1,91 @@
+package dev.svero.playground.varuna.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Allows to cancel the HTTP requests sent by {@link HttpUtils} on a thread without
+ * interrupting the thread. While a task runs with {@link #run(Task)}, the requests of the
+ * thread are sent asynchronously and the pending exchange is cancelled when
+ * {@link #cancel()} is called; the request then fails with a {@link CancellationException}.
+ * Retries are not started after the cancellation.
+ *
+ * @author Sven Roeseler
+ */
+public class RequestCancellation {
+    private static final ThreadLocal<RequestCancellation> CURRENT = new ThreadLocal<>();
+
+    private final CompletableFuture<Void> signal = new CompletableFuture<>();
+
+    /**
+     * Task whose requests can be cancelled.
+     *
+     * @param <T> Type of the result
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Runs the task on the current thread with this cancellation.
+     *
+     * @param task Task to run
+     * @param <T> Type of the result
+     * @return Result of the task
+     * @throws Exception If the task failed
+     */
+    public <T> T run(final Task<T> task) throws Exception {
+        RequestCancellation previous = CURRENT.get();
+        CURRENT.set(this);
+
+        try {
+            return task.run();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels the pending and all further requests of the task.
+     */
+    public void cancel() {
+        signal.complete(null);
+    }
+
+    public boolean isCancelled() {
+        return signal.isDone();
+    }
+
+    /**
+     * Throws a {@link CancellationException} if the task was cancelled.
+     */
+    void check() {
+        if (isCancelled()) {
+            throw new CancellationException("Request cancelled");
+        }
+    }
+
+    /**
+     * Cancels the specified exchange when the task is cancelled (immediately if it already is).
+     *
+     * @param exchange Future of the exchange
+     */
+    void register(final Future<?> exchange) {
+        signal.thenRun(() -> exchange.cancel(true));
+    }
+
+    /**
+     * Returns the cancellation of the current thread.
+     *
+     * @return Cancellation or null if the thread does not run a cancellable task
+     */
+    static RequestCancellation current() {
+        return CURRENT.get();
+    }
+}
@@ -0,0 +1,163 @@
+package dev.svero.playground.varuna.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed request is retried and how long to wait before the next attempt.
+ * The delay grows exponentially with equal jitter, i.e. it is chosen randomly between half and
+ * the full exponential delay; a {@code Retry-After} header sent by the server takes precedence
+ * (limited by the maximum delay).
+ *
+ * @author Sven Roeseler
+ */
+public class RetryPolicy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryPolicy.class);
+
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(429, 502, 503, 504);
+
+    private final int maxAttempts;
+    private final Duration initialDelay;
+    private final Duration maxDelay;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxAttempts Maximum number of attempts including the first one (1 disables retries)
+     * @param initialDelay Delay before the first retry
+     * @param maxDelay Upper limit for the delay between two attempts
+     */
+    public RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts may not be lower than 1");
+        }
+
+        if (initialDelay == null || initialDelay.isNegative()) {
+            throw new IllegalArgumentException("initialDelay may not be null or negative");
+        }
+
+        if (maxDelay == null || maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("maxDelay may not be null or lower than initialDelay");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Checks if another attempt is allowed after the specified number of attempts.
+     *
+     * @param attempts Number of attempts made so far
+     * @return True if the request may be retried
+     */
+    public boolean canRetry(int attempts) {
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * Checks if a response with the specified status code indicates a transient failure.
+     *
+     * @param statusCode HTTP status code
+     * @return True if the request should be retried
+     */
+    public boolean isRetryable(int statusCode) {
+        return RETRYABLE_STATUS_CODES.contains(statusCode);
+    }
+
+    /**
+     * Checks if the specified exception indicates a transient failure (connection refused or
+     * reset, timeouts).
+     *
+     * @param exception Exception thrown while sending the request
+     * @return True if the request should be retried
+     */
+    public boolean isRetryable(IOException exception) {
+        return exception instanceof ConnectException
+                || exception instanceof HttpConnectTimeoutException
+                || exception instanceof HttpTimeoutException
+                || isConnectionReset(exception);
+    }
+
+    /**
+     * Checks if the specified exception shows that the request was not sent because the
+     * connection could not be established. Such a request may be retried even if it must not
+     * reach the server twice.
+     *
+     * @param exception Exception thrown while sending the request
+     * @return True if the request was not sent
+     */
+    public boolean isNotSent(IOException exception) {
+        return exception instanceof ConnectException || exception instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param attempts Number of attempts made so far
+     * @param headers Headers of the failed response (may be null)
+     * @return Delay before the next attempt
+     */
+    public Duration getDelay(int attempts, HttpHeaders headers) {
+        if (headers != null) {
+            Optional<Duration> retryAfter = parseRetryAfter(headers);
+            if (retryAfter.isPresent()) {
+                return retryAfter.get().compareTo(maxDelay) > 0 ? maxDelay : retryAfter.get();
+            }
+        }
+
+        // Exponential backoff with equal jitter, which keeps at least half of the delay
+        long ceiling = initialDelay.toMillis() << Math.min(attempts - 1, 20);
+        ceiling = Math.min(Math.max(ceiling, 1), maxDelay.toMillis());
+
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+    }
+
+    private static Optional<Duration> parseRetryAfter(final HttpHeaders headers) {
+        Optional<String> value = headers.firstValue("Retry-After");
+        if (value.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String text = value.get().trim();
+
+        try {
+            return Optional.of(Duration.ofSeconds(Math.max(0, Long.parseLong(text))));
+        } catch (NumberFormatException ex) {
+            // Not delay-seconds, try HTTP-date
+        }
+
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(text, DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration delay = Duration.between(ZonedDateTime.now(date.getZone()), date);
+            return Optional.of(delay.isNegative() ? Duration.ZERO : delay);
+        } catch (DateTimeParseException ex) {
+            LOGGER.debug("Ignoring invalid Retry-After header: {}", text);
+            return Optional.empty();
+        }
+    }
+
+    private static boolean isConnectionReset(final IOException exception) {
+        String message = exception.getMessage();
+
+        return message != null && (message.contains("Connection reset") || message.contains("connection closed")
+                || message.contains("Broken pipe"));
+    }
+}
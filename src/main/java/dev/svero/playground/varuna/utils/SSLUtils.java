@@ -5,10 +5,16 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
 import java.security.*;
+import java.time.Duration;
 
 /**
  * Implements methods for handling SSL/TLS.
@@ -36,12 +42,85 @@ public class SSLUtils {
             throw new IllegalArgumentException("trustStore should not be null");
         }
 
+        return createSSLContext(createKeyManager(keyStore, keyStorePassword), createTrustManager(trustStore));
+    }
+
+    /**
+     * Creates a SSL context using the specified key and trust manager.
+     *
+     * @param keyManager Key manager for the client certificate
+     * @param trustManager Trust manager for the server certificates
+     * @return SSL context
+     */
+    public SSLContext createSSLContext(X509ExtendedKeyManager keyManager, X509ExtendedTrustManager trustManager) {
+        if (keyManager == null) {
+            throw new IllegalArgumentException("keyManager should not be null");
+        }
+
+        if (trustManager == null) {
+            throw new IllegalArgumentException("trustManager should not be null");
+        }
+
         SSLContext context;
 
         try {
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init(trustStore);
+            context = SSLContext.getInstance("TLS");
+            // Without SecureRandom the default instance of the provider is used
+            context.init(new KeyManager[]{keyManager}, new TrustManager[]{trustManager}, null);
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new SSLUtilsException("Could not create SSL context instance", e);
+        }
+
+        return context;
+    }
+
+    /**
+     * Configures the cache of the client sessions, which allows resuming TLS sessions
+     * (including TLS 1.3) without a full handshake and client certificate verification.
+     *
+     * @param context SSL context
+     * @param cacheSize Maximum number of cached sessions, 0 for no limit
+     * @param timeout Time a cached session may be resumed
+     */
+    public void configureSessionCache(SSLContext context, int cacheSize, Duration timeout) {
+        if (context == null) {
+            throw new IllegalArgumentException("context should not be null");
+        }
+
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize may not be negative");
+        }
+
+        if (timeout == null || timeout.isNegative() || timeout.toSeconds() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("timeout may not be null, negative or too large");
+        }
+
+        SSLSessionContext sessionContext = context.getClientSessionContext();
+        sessionContext.setSessionCacheSize(cacheSize);
+        sessionContext.setSessionTimeout((int) timeout.toSeconds());
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("TLS session cache: {} sessions, timeout {}", cacheSize, timeout);
+        }
+    }
+
+    /**
+     * Creates a key manager for the client certificate in the key store.
+     *
+     * @param keyStore Key store with the private key and certificate
+     * @param keyStorePassword Password for the key store
+     * @return Key manager
+     */
+    public X509ExtendedKeyManager createKeyManager(KeyStore keyStore, String keyStorePassword) {
+        if (keyStore == null) {
+            throw new IllegalArgumentException("keyStore should not be null");
+        }
+
+        if (StringUtils.isBlank(keyStorePassword)) {
+            throw new IllegalArgumentException("keyStorePassword should not be empty");
+        }
 
+        try {
             KeyManagerFactory kmf;
             try {
                 kmf = KeyManagerFactory.getInstance("PKIX");
@@ -55,12 +134,42 @@ public class SSLUtils {
 
             kmf.init(keyStore, keyStorePassword.toCharArray());
 
-            context = SSLContext.getInstance("TLS");
-            context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), new SecureRandom());
-        } catch (NoSuchAlgorithmException | UnrecoverableKeyException | KeyStoreException | KeyManagementException e) {
-            throw new SSLUtilsException("Could not create SSL context instance", e);
+            for (KeyManager keyManager : kmf.getKeyManagers()) {
+                if (keyManager instanceof X509ExtendedKeyManager x509KeyManager) {
+                    return x509KeyManager;
+                }
+            }
+        } catch (NoSuchAlgorithmException | UnrecoverableKeyException | KeyStoreException e) {
+            throw new SSLUtilsException("Could not create key manager", e);
         }
 
-        return context;
+        throw new SSLUtilsException("No X.509 key manager available");
+    }
+
+    /**
+     * Creates a trust manager for the certificates in the trust store.
+     *
+     * @param trustStore Trust store
+     * @return Trust manager
+     */
+    public X509ExtendedTrustManager createTrustManager(KeyStore trustStore) {
+        if (trustStore == null) {
+            throw new IllegalArgumentException("trustStore should not be null");
+        }
+
+        try {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trustStore);
+
+            for (TrustManager trustManager : tmf.getTrustManagers()) {
+                if (trustManager instanceof X509ExtendedTrustManager x509TrustManager) {
+                    return x509TrustManager;
+                }
+            }
+        } catch (NoSuchAlgorithmException | KeyStoreException e) {
+            throw new SSLUtilsException("Could not create trust manager", e);
+        }
+
+        throw new SSLUtilsException("No X.509 trust manager available");
     }
 }